@@ -20,18 +20,22 @@
 
 package org.ntpsync.apidemo;
 
+import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.ntpsync.service.INtpSyncRemoteCallback;
 import org.ntpsync.service.INtpSyncRemoteService;
+import org.ntpsync.service.TrueTime;
 
 import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceClickListener;
@@ -48,6 +52,8 @@ public class BaseActivity extends PreferenceActivity {
     public static final int RETURN_OKAY = 1;
     public static final int RETURN_SERVER_TIMEOUT = 2;
     public static final int RETURN_NO_ROOT = 3;
+    public static final int RETURN_CANCELLED = 4;
+    public static final int RETURN_RATE_LIMITED = 5;
 
     public static final String OUTPUT_OFFSET = "offset";
 
@@ -59,6 +65,14 @@ public class BaseActivity extends PreferenceActivity {
     /** The primary interface we will be calling on the service. */
     INtpSyncRemoteService mNtpSyncService = null;
 
+    /** true time shared by NTPSync, read without IPC */
+    TrueTime mTrueTime = null;
+
+    /** ids of the requests sent to the service, to match results and cancel them */
+    private final AtomicInteger mNextRequestId = new AtomicInteger();
+    private int mGetTimeRequestId = -1;
+    private int mSetTimeRequestId = -1;
+
     /**
      * Class for interacting with the main interface of NTPSync service.
      */
@@ -74,6 +88,18 @@ public class BaseActivity extends PreferenceActivity {
             mNtpSyncService = INtpSyncRemoteService.Stub.asInterface(service);
 
             Log.d(TAG, "We are now connected to NtpSyncRemoteService!");
+
+            // the shared memory is obtained once, afterwards reading the time needs no IPC
+            try {
+                ParcelFileDescriptor memory = mNtpSyncService.getTrueTimeMemory();
+                if (memory != null) {
+                    mTrueTime = TrueTime.map(memory);
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, "Getting shared memory failed!", e);
+            } catch (IOException e) {
+                Log.e(TAG, "Mapping shared memory failed!", e);
+            }
         }
 
         @Override
@@ -135,6 +161,16 @@ public class BaseActivity extends PreferenceActivity {
     protected void onDestroy() {
         super.onDestroy();
 
+        // results of outstanding requests are not needed anymore
+        if (mNtpSyncService != null) {
+            try {
+                mNtpSyncService.cancel(mGetTimeRequestId, mGetTimeCallback);
+                mNtpSyncService.cancel(mSetTimeRequestId, mSetTimeCallback);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Cancelling requests failed!", e);
+            }
+        }
+
         // unbind from NtpSync
         unbindService(mConnection);
     }
@@ -142,146 +178,143 @@ public class BaseActivity extends PreferenceActivity {
     /**
      * Gets time using NTPSync
      * 
-     * IPC calls via AIDL are synchronous in Android!!! Because of that we need to call the methods
-     * from AsyncTask or IntentService to not block the UI
+     * The asynchronous variant of the AIDL method returns immediately, the result is delivered to
+     * mGetTimeCallback on a binder thread
      */
     private void getTime() {
-        AsyncTask<Void, Void, Integer> getTimeTask = new AsyncTask<Void, Void, Integer>() {
-            long offset;
+        if (mNtpSyncService == null) {
+            return;
+        }
 
-            @Override
-            protected Integer doInBackground(Void... unused) {
-                int result = RETURN_GENERIC_ERROR;
+        mGetTimeRequestId = mNextRequestId.getAndIncrement();
+        try {
+            mNtpSyncService.getSystemTimeOffsetAsync(mGetTimeRequestId, null, mGetTimeCallback);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
 
-                try {
-                    Bundle output = new Bundle();
-                    result = mNtpSyncService.getSystemTimeOffset(null, output);
+    /**
+     * Sets time using NTPSync
+     * 
+     * The asynchronous variant of the AIDL method returns immediately, the result is delivered to
+     * mSetTimeCallback on a binder thread
+     */
+    private void setTime() {
+        if (mNtpSyncService == null) {
+            return;
+        }
 
-                    offset = output.getLong(OUTPUT_OFFSET);
+        mSetTimeRequestId = mNextRequestId.getAndIncrement();
+        try {
+            mNtpSyncService.setTimeAsync(mSetTimeRequestId, null, mSetTimeCallback);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
 
-                    Log.d(TAG, "Result: " + result);
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
+    private final INtpSyncRemoteCallback.Stub mGetTimeCallback = new INtpSyncRemoteCallback.Stub() {
+        @Override
+        public void onResult(int requestId, final int result, Bundle output)
+                throws RemoteException {
+            Log.d(TAG, "Result of request " + requestId + ": " + result);
 
-                // return result to onPostExecute
-                return result;
-            }
+            final long offset = output.getLong(OUTPUT_OFFSET);
 
-            @Override
-            protected void onPreExecute() {
-                super.onPreExecute();
+            if (mTrueTime != null) {
+                Log.d(TAG, "Time from shared memory: " + new Date(mTrueTime.currentTimeMillis()));
             }
 
-            @Override
-            protected void onPostExecute(Integer result) {
-                super.onPostExecute(result);
+            // toasts have to be shown from the UI thread
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast toast = null;
+                    switch (result) {
+                    case RETURN_GENERIC_ERROR:
+                        toast = Toast.makeText(mActivity, "Error", Toast.LENGTH_LONG);
+                        toast.show();
 
-                Toast toast = null;
-                switch (result) {
-                case RETURN_GENERIC_ERROR:
-                    toast = Toast.makeText(mActivity, "Error", Toast.LENGTH_LONG);
-                    toast.show();
+                        break;
 
-                    break;
+                    case RETURN_OKAY:
+                        // calculate new time
+                        Date newTime = new Date(System.currentTimeMillis() + offset);
 
-                case RETURN_OKAY:
-                    // calculate new time
-                    Date newTime = new Date(System.currentTimeMillis() + offset);
+                        toast = Toast.makeText(mActivity, "NTP offset is " + offset + " ("
+                                + newTime + ")", Toast.LENGTH_LONG);
+                        toast.show();
 
-                    toast = Toast.makeText(mActivity, "NTP offset is " + offset + " (" + newTime
-                            + ")", Toast.LENGTH_LONG);
-                    toast.show();
+                        break;
 
-                    break;
+                    case RETURN_SERVER_TIMEOUT:
+                        toast = Toast.makeText(mActivity, "Server timeout!", Toast.LENGTH_LONG);
+                        toast.show();
 
-                case RETURN_SERVER_TIMEOUT:
-                    toast = Toast.makeText(mActivity, "Server timeout!", Toast.LENGTH_LONG);
-                    toast.show();
+                        break;
 
-                    break;
+                    case RETURN_RATE_LIMITED:
+                        toast = Toast.makeText(mActivity, "Rate limited!", Toast.LENGTH_LONG);
+                        toast.show();
 
-                default:
-                    break;
-                }
-            }
-        };
-
-        getTimeTask.execute();
-    }
+                        break;
 
-    /**
-     * Sets time using NTPSync
-     * 
-     * IPC calls via AIDL are synchronous in Android!!! Because of that we need to call the methods
-     * from AsyncTask or IntentService to not block the UI
-     */
-    private void setTime() {
-        AsyncTask<Void, Void, Integer> setTimeTask = new AsyncTask<Void, Void, Integer>() {
-            long offset;
-
-            @Override
-            protected Integer doInBackground(Void... unused) {
-                int result = RETURN_GENERIC_ERROR;
-
-                try {
-                    Bundle output = new Bundle();
-                    result = mNtpSyncService.setTime(null, output);
-
-                    Log.d(TAG, "Result: " + result);
-                } catch (RemoteException e) {
-                    e.printStackTrace();
+                    default:
+                        break;
+                    }
                 }
+            });
+        }
+    };
 
-                // return result to onPostExecute
-                return result;
-            }
-
-            @Override
-            protected void onPreExecute() {
-                super.onPreExecute();
-            }
+    private final INtpSyncRemoteCallback.Stub mSetTimeCallback = new INtpSyncRemoteCallback.Stub() {
+        @Override
+        public void onResult(int requestId, final int result, Bundle output)
+                throws RemoteException {
+            Log.d(TAG, "Result of request " + requestId + ": " + result);
 
-            @Override
-            protected void onPostExecute(Integer result) {
-                super.onPostExecute(result);
+            // toasts have to be shown from the UI thread
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast toast = null;
+                    switch (result) {
+                    case RETURN_GENERIC_ERROR:
+                        toast = Toast.makeText(mActivity, "Error!", Toast.LENGTH_LONG);
+                        toast.show();
 
-                Toast toast = null;
-                switch (result) {
-                case RETURN_GENERIC_ERROR:
-                    toast = Toast.makeText(mActivity, "Error!", Toast.LENGTH_LONG);
-                    toast.show();
+                        break;
 
-                    break;
+                    case RETURN_OKAY:
+                        toast = Toast.makeText(mActivity, "Time was set to "
+                                + new Date(System.currentTimeMillis()), Toast.LENGTH_LONG);
+                        toast.show();
 
-                case RETURN_OKAY:
-                    // calculate new time
-                    Date newTime = new Date(System.currentTimeMillis() + offset);
+                        break;
 
-                    toast = Toast.makeText(mActivity, "Time was set to " + newTime,
-                            Toast.LENGTH_LONG);
-                    toast.show();
+                    case RETURN_SERVER_TIMEOUT:
+                        toast = Toast.makeText(mActivity, "Server timeout!", Toast.LENGTH_LONG);
+                        toast.show();
 
-                    break;
+                        break;
 
-                case RETURN_SERVER_TIMEOUT:
-                    toast = Toast.makeText(mActivity, "Server timeout!", Toast.LENGTH_LONG);
-                    toast.show();
+                    case RETURN_RATE_LIMITED:
+                        toast = Toast.makeText(mActivity, "Rate limited!", Toast.LENGTH_LONG);
+                        toast.show();
 
-                    break;
+                        break;
 
-                case RETURN_NO_ROOT:
-                    toast = Toast.makeText(mActivity, "No Root!", Toast.LENGTH_LONG);
-                    toast.show();
-                    break;
+                    case RETURN_NO_ROOT:
+                        toast = Toast.makeText(mActivity, "No Root!", Toast.LENGTH_LONG);
+                        toast.show();
+                        break;
 
-                default:
-                    break;
+                    default:
+                        break;
+                    }
                 }
-            }
-        };
-
-        setTimeTask.execute();
-    }
+            });
+        }
+    };
 
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.service;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+/**
+ * True time computed locally from the memory shared by NTPSync, without any IPC after the memory
+ * has been obtained once by INtpSyncRemoteService.getTrueTimeMemory(). Copy this class into the
+ * client app like the AIDL files.
+ *
+ * The memory holds the true time at an elapsed real time (the anchor), the frequency error of the
+ * local oscillator and the error bound at the anchor. It is written with a sequence lock: the
+ * sequence is odd while the writer is busy and changes with every update, readers retry until
+ * they read the same even sequence before and after the values.
+ *
+ * The fences of the sequence lock only order the memory accesses within one process, Java gives
+ * no guarantee in which order another process sees the writes to a mapped file. The values are
+ * therefore also covered by a checksum, and readers retry until it matches too.
+ */
+public class TrueTime {
+    /** version of the layout below */
+    public static final int VERSION = 1;
+
+    // layout of the shared memory, in native byte order
+    static final int OFFSET_SEQUENCE = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_ANCHOR_ELAPSED_REALTIME = 8;
+    static final int OFFSET_ANCHOR_TIME = 16;
+    static final int OFFSET_FREQUENCY = 24;
+    static final int OFFSET_ERROR_BOUND = 32;
+    static final int OFFSET_CHECKSUM = 40;
+    public static final int SIZE = 64;
+
+    /** the error bound grows with the frequency tolerance of the oscillator (PHI, 15 ppm) */
+    private static final double FREQUENCY_TOLERANCE = 15e-6;
+
+    /**
+     * reads tried before giving up, a writer that died in the middle of a write leaves the memory
+     * inconsistent until NTPSync runs again
+     */
+    private static final int MAX_READ_ATTEMPTS = 1000;
+
+    private static volatile int sFence;
+
+    private final ByteBuffer mBuffer;
+
+    TrueTime(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Maps the memory returned by INtpSyncRemoteService.getTrueTimeMemory()
+     *
+     * @param memory
+     *            read-only file descriptor, closed by this method
+     */
+    public static TrueTime map(ParcelFileDescriptor memory) throws IOException {
+        FileInputStream in = new FileInputStream(memory.getFileDescriptor());
+        try {
+            ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt(OFFSET_VERSION) != VERSION) {
+                throw new IOException("Unsupported layout of the shared memory!");
+            }
+            return new TrueTime(buffer);
+        } finally {
+            in.close();
+            memory.close();
+        }
+    }
+
+    /**
+     * FNV-1a hash of the sequence the values are published with and the values
+     */
+    static long checksum(int sequence, long anchorElapsedRealtimeNs, long anchorTimeNs,
+            double frequencyPpm, long errorBoundNs) {
+        long[] values = { sequence, anchorElapsedRealtimeNs, anchorTimeNs,
+                Double.doubleToRawLongBits(frequencyPpm), errorBoundNs };
+        long hash = 0xcbf29ce484222325L;
+        for (long value : values) {
+            for (int i = 0; i < 8; i++) {
+                hash = (hash ^ ((value >>> (8 * i)) & 0xff)) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Orders all memory accesses before against all accesses after, a volatile write followed by
+     * a volatile read of the same field can not be reordered
+     */
+    private static int fence() {
+        sFence = 0;
+        return sFence;
+    }
+
+    /**
+     * True time at an elapsed real time and its error bound, from one consistent read
+     *
+     * @param elapsedRealtimeNs
+     *            elapsed real time in nanoseconds
+     * @param result
+     *            receives the true time in nanoseconds since 1970 at index 0 and the error bound
+     *            in nanoseconds at index 1
+     * @return false if NTPSync has not synced the time yet or no consistent read succeeded
+     */
+    public boolean getTime(long elapsedRealtimeNs, long[] result) {
+        long anchorElapsedRealtimeNs;
+        long anchorTimeNs;
+        double frequencyPpm;
+        long errorBoundNs;
+        long checksum;
+        int sequence;
+        int attempts = 0;
+        do {
+            if (attempts++ == MAX_READ_ATTEMPTS) {
+                return false;
+            }
+            sequence = mBuffer.getInt(OFFSET_SEQUENCE);
+            fence();
+            anchorElapsedRealtimeNs = mBuffer.getLong(OFFSET_ANCHOR_ELAPSED_REALTIME);
+            anchorTimeNs = mBuffer.getLong(OFFSET_ANCHOR_TIME);
+            frequencyPpm = mBuffer.getDouble(OFFSET_FREQUENCY);
+            errorBoundNs = mBuffer.getLong(OFFSET_ERROR_BOUND);
+            checksum = mBuffer.getLong(OFFSET_CHECKSUM);
+            fence();
+        } while ((sequence & 1) != 0
+                || sequence != mBuffer.getInt(OFFSET_SEQUENCE)
+                || checksum != checksum(sequence, anchorElapsedRealtimeNs, anchorTimeNs,
+                        frequencyPpm, errorBoundNs));
+
+        if (anchorTimeNs == 0) {
+            return false;
+        }
+        // a positive frequency error means the oscillator is slow
+        long elapsedNs = elapsedRealtimeNs - anchorElapsedRealtimeNs;
+        result[0] = anchorTimeNs + elapsedNs + Math.round(elapsedNs * frequencyPpm / 1e6);
+        result[1] = errorBoundNs + Math.round(Math.abs(elapsedNs) * FREQUENCY_TOLERANCE);
+        return true;
+    }
+
+    /**
+     * @return current true time in milliseconds since 1970 or 0 if NTPSync has not synced the
+     *         time yet or the memory could not be read consistently
+     */
+    public long currentTimeMillis() {
+        long[] result = new long[2];
+        if (!getTime(SystemClock.elapsedRealtimeNanos(), result)) {
+            return 0;
+        }
+        return result[0] / 1000000L;
+    }
+}
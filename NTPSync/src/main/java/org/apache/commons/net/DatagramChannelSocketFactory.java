@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.net;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
+
+/***
+ * DatagramChannelSocketFactory implements the DatagramSocketFactory
+ * interface by creating the sockets of java.nio.channels.DatagramChannel
+ * objects.  Clients that find a channel behind their socket (see
+ * {@link java.net.DatagramSocket#getChannel()}) may then multiplex it with
+ * a {@link java.nio.channels.Selector} instead of blocking in receive().
+ * <p>
+ * <p>
+ * @see DatagramSocketFactory
+ * @see DatagramSocketClient
+ * @see DatagramSocketClient#setDatagramSocketFactory
+ ***/
+
+public class DatagramChannelSocketFactory implements DatagramSocketFactory
+{
+
+    /***
+     * Creates a DatagramSocket on the local host at the first available port.
+     * <p>
+     * @exception SocketException If the socket could not be created.
+     ***/
+//    @Override
+    public DatagramSocket createDatagramSocket() throws SocketException
+    {
+        return createDatagramSocket(new InetSocketAddress(0));
+    }
+
+    /***
+     * Creates a DatagramSocket on the local host at a specified port.
+     * <p>
+     * @param port The port to use for the socket.
+     * @exception SocketException If the socket could not be created.
+     ***/
+//    @Override
+    public DatagramSocket createDatagramSocket(int port) throws SocketException
+    {
+        return createDatagramSocket(new InetSocketAddress(port));
+    }
+
+    /***
+     * Creates a DatagramSocket at the specified address on the local host
+     * at a specified port.
+     * <p>
+     * @param port The port to use for the socket.
+     * @param laddr  The local address to use.
+     * @exception SocketException If the socket could not be created.
+     ***/
+//    @Override
+    public DatagramSocket createDatagramSocket(int port, InetAddress laddr)
+    throws SocketException
+    {
+        return createDatagramSocket(new InetSocketAddress(laddr, port));
+    }
+
+    private DatagramSocket createDatagramSocket(InetSocketAddress address)
+    throws SocketException
+    {
+        DatagramChannel channel = null;
+        try
+        {
+            channel = DatagramChannel.open();
+            DatagramSocket socket = channel.socket();
+            socket.bind(address);
+            return socket;
+        }
+        catch (SocketException e)
+        {
+            closeQuietly(channel);
+            throw e;
+        }
+        catch (IOException e)
+        {
+            closeQuietly(channel);
+            SocketException se = new SocketException("Could not open channel");
+            se.initCause(e);
+            throw se;
+        }
+    }
+
+    private static void closeQuietly(DatagramChannel channel)
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // ignored, the original exception is more interesting
+            }
+        }
+    }
+}
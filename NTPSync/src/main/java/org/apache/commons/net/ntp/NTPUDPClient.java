@@ -18,8 +18,23 @@ package org.apache.commons.net.ntp;
 
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import android.os.SystemClock;
 
 import org.apache.commons.net.DatagramSocketClient;
@@ -45,8 +60,23 @@ public final class NTPUDPClient extends DatagramSocketClient
     /*** The default NTP port.  It is set to 123 according to RFC 1305. ***/
     public static final int DEFAULT_PORT = 123;
 
+    /***
+     * Number of low-order fraction bits of the transmit timestamp that
+     * {@link #getTimes getTimes} replaces with a request sequence number, so
+     * that requests sent within the same clock tick can still be told apart
+     * by the originate timestamp echoed in the reply (2^-20 s is below 1 us).
+     ***/
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
     private int _version = NtpV3Packet.VERSION_3;
 
+    /*** Set by {@link #cancel cancel()}, checked by the exchange loop. ***/
+    private volatile boolean _cancelled_;
+
+    /*** Selector of the exchange in progress, woken up by cancel(). ***/
+    private volatile Selector _selector_;
+
     /***
      * Retrieves the time information from the specified server and port and
      * returns it. The time is the number of miliiseconds since
@@ -129,6 +159,397 @@ public final class NTPUDPClient extends DatagramSocketClient
         return getTime(host, NtpV3Packet.NTP_PORT, elapsedTime);
     }
 
+    /***
+     * Sends a client request to every one of the given servers at once over
+     * this client's single socket and collects the replies. Replies are
+     * correlated with their request by the originate timestamp the server
+     * echoes back, so they may arrive in any order. This method returns as
+     * soon as <code>quorum</code> servers have answered or the default
+     * timeout (see {@link #setDefaultTimeout setDefaultTimeout()}) has
+     * elapsed since the requests were sent, whichever comes first.
+     * <p>
+     * @param hosts The addresses of the servers.
+     * @param port The port of the service.
+     * @param elapsedTime: if true, calculate offset for elapsed real time
+     *                     if false, calculate offset for system time
+     * @param quorum Number of replies after which to stop waiting for the others.
+     * @return The replies in order of arrival, never empty.
+     * @exception SocketTimeoutException If no server answered in time.
+     * @exception IOException If an error occurs while retrieving the time.
+     ***/
+    public List<TimeInfo> getTimes(InetAddress[] hosts, int port, boolean elapsedTime, int quorum)
+        throws IOException
+    {
+        return getTimes(hosts, port, elapsedTime, quorum, 1, 0);
+    }
+
+    /***
+     * Like {@link #getTimes(InetAddress[], int, boolean, int)}, but sends a
+     * burst of <code>burst</code> requests to every server, one round every
+     * <code>spacing</code> milliseconds, so that a clock filter can pick the
+     * sample least disturbed by queueing delays. After the last round this
+     * method waits for the outstanding replies until <code>quorum</code>
+     * servers have answered at least once and no further reply is to be
+     * expected; a reply still missing twice the slowest roundtrip seen
+     * after the last round is considered lost. The time spent is thus
+     * bounded by <code>(burst - 1) * spacing</code> plus the default timeout.
+     * <p>
+     * If the socket was created by a
+     * {@link org.apache.commons.net.DatagramChannelSocketFactory}, its channel
+     * is switched to non-blocking mode for the exchange and waited on with a
+     * selector, so no thread is parked in a blocking receive.
+     * <p>
+     * @param hosts The addresses of the servers.
+     * @param port The port of the service.
+     * @param elapsedTime: if true, calculate offset for elapsed real time
+     *                     if false, calculate offset for system time
+     * @param quorum Number of servers after whose answers to stop waiting for the others.
+     * @param burst Number of requests sent to every server.
+     * @param spacing Milliseconds between two rounds of requests.
+     * @return The replies of all rounds in order of arrival, never empty.
+     * @exception SocketTimeoutException If no server answered in time.
+     * @exception IOException If an error occurs while retrieving the time.
+     ***/
+    public List<TimeInfo> getTimes(InetAddress[] hosts, int port, boolean elapsedTime, int quorum,
+        int burst, int spacing) throws IOException
+    {
+        int[] bursts = new int[hosts.length];
+        Arrays.fill(bursts, burst);
+        return getTimes(hosts, port, elapsedTime, quorum, bursts, spacing);
+    }
+
+    /***
+     * Like {@link #getTimes(InetAddress[], int, boolean, int, int, int)},
+     * but with a burst size per server, so that servers can be paced
+     * individually. A server whose burst is 0 is not queried. A server that
+     * answers with a kiss-o'-death packet (see {@link NtpUtils#getKissCode
+     * NtpUtils.getKissCode()}) gets no further requests of this exchange;
+     * the kiss-o'-death reply is returned like any other reply, but does not
+     * count toward the quorum.
+     * <p>
+     * @param hosts The addresses of the servers.
+     * @param port The port of the service.
+     * @param elapsedTime: if true, calculate offset for elapsed real time
+     *                     if false, calculate offset for system time
+     * @param quorum Number of servers after whose answers to stop waiting for the others.
+     * @param bursts Number of requests sent to each server, in the order of hosts.
+     * @param spacing Milliseconds between two rounds of requests.
+     * @return The replies of all rounds in order of arrival, never empty.
+     * @exception SocketTimeoutException If no server answered in time.
+     * @exception InterruptedIOException If the exchange was cancelled by
+     * {@link #cancel cancel()} or the thread was interrupted.
+     * @exception IOException If an error occurs while retrieving the time.
+     ***/
+    public List<TimeInfo> getTimes(InetAddress[] hosts, int port, boolean elapsedTime, int quorum,
+        int[] bursts, int spacing) throws IOException
+    {
+        if (bursts.length != hosts.length)
+        {
+            throw new IllegalArgumentException("Bursts do not match hosts: " + bursts.length);
+        }
+        int burst = 0;
+        for (int b : bursts)
+        {
+            if (b < 0)
+            {
+                throw new IllegalArgumentException("Invalid burst: " + b);
+            }
+            burst = Math.max(burst, b);
+        }
+        if (burst < 1)
+        {
+            throw new IllegalArgumentException("Invalid burst: " + burst);
+        }
+        if ((long) hosts.length * burst > SEQUENCE_MASK + 1)
+        {
+            throw new IllegalArgumentException("Too many requests: " + hosts.length + " hosts * "
+                + burst);
+        }
+
+        // if not connected then open to next available UDP port
+        if (!isOpen())
+        {
+            open();
+        }
+
+        // sockets of a DatagramChannelSocketFactory are multiplexed with a selector
+        DatagramChannel channel = _socket_.getChannel();
+        Selector selector = null;
+        if (channel != null)
+        {
+            selector = Selector.open();
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            _selector_ = selector;
+        }
+
+        try
+        {
+            return exchange(hosts, port, elapsedTime, quorum, bursts, burst, spacing, selector);
+        }
+        finally
+        {
+            if (selector != null)
+            {
+                _selector_ = null;
+                // closing deregisters the channel, which can then block again
+                selector.close();
+                channel.configureBlocking(true);
+            }
+            // restore the timeout for subsequent getTime() calls
+            _socket_.setSoTimeout(_timeout_);
+        }
+    }
+
+    /***
+     * Sends the requests of {@link #getTimes(InetAddress[], int, boolean,
+     * int, int[], int)} and collects the replies. Every request expires on its
+     * own after the default timeout.
+     ***/
+    private List<TimeInfo> exchange(InetAddress[] hosts, int port, boolean elapsedTime, int quorum,
+        int[] bursts, int burst, int spacing, Selector selector) throws IOException
+    {
+        // outstanding requests by the transmit timestamp they were sent with,
+        // whose low-order bits hold the sequence number round * hosts + host
+        Map<Long, Integer> pending = new HashMap<Long, Integer>();
+        long[] sentAt = new long[hosts.length * burst];
+        List<TimeInfo> replies = new ArrayList<TimeInfo>();
+        int[] answered = new int[hosts.length];
+        int answeredHosts = 0;
+        // servers that sent a kiss-o'-death packet are not sent to any more
+        boolean[] kissed = new boolean[hosts.length];
+
+        NtpV3Packet message = new NtpV3Impl();
+        message.setMode(NtpV3Packet.MODE_CLIENT);
+        message.setVersion(_version);
+
+        int rounds = 0;
+        long nextRound = monotonicMillis();
+        long lastRound = nextRound;
+        long slowestRoundtrip = 0;
+        NtpV3Packet recMessage = new NtpV3Impl();
+        while (true)
+        {
+            // an interrupt would make every select() return at once and the
+            // next send() close the channel, give up instead
+            if (_cancelled_ || Thread.currentThread().isInterrupted())
+            {
+                throw new InterruptedIOException("Exchange cancelled");
+            }
+
+            long now = monotonicMillis();
+            if (rounds < burst && now >= nextRound)
+            {
+                for (int i = 0; i < hosts.length; i++)
+                {
+                    if (rounds >= bursts[i] || kissed[i])
+                    {
+                        continue;
+                    }
+                    // keep the time between timestamping and sending as short as in getTime()
+                    int sequence = rounds * hosts.length + i;
+                    long transmit = (currentNtpTime(elapsedTime) & ~SEQUENCE_MASK) | sequence;
+                    message.setTransmitTimeValue(transmit);
+                    pending.put(Long.valueOf(transmit), Integer.valueOf(sequence));
+                    sentAt[sequence] = monotonicMillis();
+
+                    send(message, hosts[i], port, selector);
+                }
+                rounds++;
+                lastRound = now;
+                nextRound = now + spacing;
+                continue;
+            }
+
+            // time of the next event to wake up for
+            long wakeup = (rounds < burst) ? nextRound : Long.MAX_VALUE;
+
+            // give up on requests whose reply is overdue
+            if (_timeout_ > 0)
+            {
+                Iterator<Integer> it = pending.values().iterator();
+                while (it.hasNext())
+                {
+                    long expiry = sentAt[it.next().intValue()] + _timeout_;
+                    if (now >= expiry)
+                    {
+                        it.remove();
+                    }
+                    else
+                    {
+                        wakeup = Math.min(wakeup, expiry);
+                    }
+                }
+            }
+
+            if (rounds == burst)
+            {
+                if (pending.isEmpty())
+                {
+                    break;
+                }
+                if (answeredHosts >= quorum)
+                {
+                    long settled = lastRound + Math.max(spacing, 2 * slowestRoundtrip);
+                    if (burst == 1 || now >= settled)
+                    {
+                        break;
+                    }
+                    wakeup = Math.min(wakeup, settled);
+                }
+            }
+
+            // 0 waits forever
+            long wait = (wakeup == Long.MAX_VALUE) ? 0 : Math.max(wakeup - now, 1);
+            InetAddress source = receive(recMessage, wait, selector);
+            if (source == null)
+            {
+                continue;
+            }
+            long returnTime = currentNtpTime(elapsedTime);
+
+            // drop late duplicates and anything that does not answer one of our requests
+            Long originate = Long.valueOf(recMessage.getOriginateTimeStampValue());
+            Integer sequence = pending.get(originate);
+            int index = (sequence == null) ? -1 : sequence.intValue() % hosts.length;
+            if (sequence == null || !hosts[index].equals(source))
+            {
+                continue;
+            }
+            pending.remove(originate);
+            slowestRoundtrip = Math.max(slowestRoundtrip,
+                monotonicMillis() - sentAt[sequence.intValue()]);
+            if (NtpUtils.getKissCode(recMessage) != null)
+            {
+                kissed[index] = true;
+            }
+            else if (answered[index]++ == 0)
+            {
+                answeredHosts++;
+            }
+
+            // create TimeInfo message container but don't pre-compute the details yet
+            replies.add(new TimeInfo(recMessage, returnTime, false));
+            recMessage = new NtpV3Impl();
+        }
+
+        if (replies.isEmpty())
+        {
+            throw new SocketTimeoutException("No server answered");
+        }
+        return replies;
+    }
+
+    /***
+     * Cancels the exchange of {@link #getTimes(InetAddress[], int, boolean,
+     * int, int[], int)} in progress or about to start, which then throws an
+     * <code>InterruptedIOException</code>. May be called from any thread.
+     * Unlike interrupting the thread, this leaves the socket open. Without
+     * a {@link org.apache.commons.net.DatagramChannelSocketFactory} the
+     * exchange only notices the cancellation when the current receive
+     * returns. A cancelled client stays cancelled.
+     ***/
+    public void cancel()
+    {
+        _cancelled_ = true;
+        Selector selector = _selector_;
+        if (selector != null)
+        {
+            selector.wakeup();
+        }
+    }
+
+    /***
+     * Sends the message to the given server, through the channel if there
+     * is a selector.
+     ***/
+    private void send(NtpV3Packet message, InetAddress host, int port, Selector selector)
+        throws IOException
+    {
+        if (selector == null)
+        {
+            DatagramPacket sendPacket = message.getDatagramPacket();
+            sendPacket.setAddress(host);
+            sendPacket.setPort(port);
+            _socket_.send(sendPacket);
+        }
+        else
+        {
+            // a datagram not sent for lack of buffer space just counts as lost
+            ByteBuffer buffer = message.getByteBuffer();
+            buffer.clear();
+            _socket_.getChannel().send(buffer, new InetSocketAddress(host, port));
+        }
+    }
+
+    /***
+     * Receives a datagram into the message, waiting at most the given time.
+     *
+     * @param wait Milliseconds to wait, 0 to wait forever.
+     * @return The address the datagram came from, or null if none was
+     * received in time.
+     ***/
+    private InetAddress receive(NtpV3Packet message, long wait, Selector selector)
+        throws IOException
+    {
+        DatagramPacket receivePacket = message.getDatagramPacket();
+        if (selector == null)
+        {
+            _socket_.setSoTimeout((int) wait);
+            try
+            {
+                _socket_.receive(receivePacket);
+            }
+            catch (SocketTimeoutException e)
+            {
+                return null;
+            }
+            return receivePacket.getAddress();
+        }
+
+        if (selector.select(wait) == 0)
+        {
+            return null;
+        }
+        selector.selectedKeys().clear();
+
+        ByteBuffer buffer = message.getByteBuffer();
+        buffer.clear();
+        SocketAddress source = _socket_.getChannel().receive(buffer);
+        if (source == null || buffer.position() < buffer.capacity())
+        {
+            // spurious wakeup or truncated datagram
+            return null;
+        }
+        // keep the datagram packet in sync for TimeInfo.getAddress()
+        receivePacket.setSocketAddress(source);
+        return ((InetSocketAddress) source).getAddress();
+    }
+
+    /***
+     * Returns a millisecond clock for scheduling that is not affected by
+     * changes of the system time.
+     ***/
+    private static long monotonicMillis()
+    {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /***
+     * Returns the current local time as 64-bit NTP timestamp value.
+     *
+     * @param elapsedTime: if true, use elapsed real time
+     *                     if false, use system time
+     ***/
+    private static long currentNtpTime(boolean elapsedTime)
+    {
+        if (elapsedTime) {
+            return TimeStamp.nanosToNtpTime(SystemClock.elapsedRealtimeNanos());
+        } else {
+            return TimeStamp.millisToNtpTime(System.currentTimeMillis());
+        }
+    }
+
     /***
      * Returns the NTP protocol version number that client sets on request packet
      * that is sent to remote host (e.g. 3=NTP v3, 4=NTP v4, etc.)
@@ -0,0 +1,232 @@
+package org.apache.commons.net.ntp;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+
+import org.apache.commons.net.DatagramSocketClient;
+
+/***
+ * The NTPUDPServer class is a UDP implementation of a server for the
+ * Network Time Protocol (NTP) described in RFC 1305 and RFC 5905. It
+ * answers client (mode 3) requests with server (mode 4) replies carrying
+ * the local system time. To use the class, open a local datagram socket
+ * with <a href="#open"> open </a>, describe the synchronization source of
+ * the local clock with {@link #setReference setReference()} and call
+ * {@link #serve serve()} from a dedicated thread. {@link #stop stop()}
+ * ends the loop from any other thread.
+ * <p>
+ * The receive loop reuses one request and one reply packet, so no objects
+ * are created per request. Until a reference is set the server replies
+ * unsynchronized (leap indicator alarm, stratum 16), which any client
+ * discards.
+ ***/
+
+public final class NTPUDPServer extends DatagramSocketClient
+{
+    /*** Stratum of a server that is not synchronized (RFC 5905). ***/
+    public static final int STRATUM_UNSYNCHRONIZED = 16;
+
+    /*** Frequency tolerance of the local clock (PHI, 15 ppm), in ppm. ***/
+    private static final long FREQUENCY_TOLERANCE_PPM = 15;
+
+    /*** Maximum dispersion (MAXDISP, 16 s) as 16.16 fixed-point seconds. ***/
+    private static final int MAX_DISPERSION = 16 << 16;
+
+    /*** Precision of System.currentTimeMillis(), 2^-10 s. ***/
+    private static final int PRECISION = -10;
+
+    private volatile boolean _stopped;
+
+    // reference state, replaced as a whole by setReference()
+    private volatile Reference _reference = new Reference(NtpV3Packet.LI_ALARM_CONDITION,
+        STRATUM_UNSYNCHRONIZED, 0, 0, 0, 0);
+
+    private long _requests;
+
+    /***
+     * Snapshot of the synchronization source of the local clock.
+     ***/
+    private static final class Reference
+    {
+        final int leap;
+        final int stratum;
+        final int referenceId;
+        final long referenceTime;
+        final int rootDelay;
+        final int rootDispersion;
+
+        Reference(int leap, int stratum, int referenceId, long referenceTime, int rootDelay,
+            int rootDispersion)
+        {
+            this.leap = leap;
+            this.stratum = stratum;
+            this.referenceId = referenceId;
+            this.referenceTime = referenceTime;
+            this.rootDelay = rootDelay;
+            this.rootDispersion = rootDispersion;
+        }
+    }
+
+    /***
+     * Describes the synchronization source the local clock was last set
+     * from. The root dispersion sent to clients grows from the given value
+     * with the time passed since <code>referenceTime</code>.
+     * <p>
+     * @param stratum Stratum of this server, one more than its source's.
+     * @param referenceId Reference id, the IPv4 address of the source or
+     *                    a hash of its IPv6 address.
+     * @param referenceTime Time the local clock was last set, as 64-bit NTP
+     *                      timestamp value.
+     * @param rootDelay Total roundtrip delay to the primary reference, as
+     *                  16.16 fixed-point seconds.
+     * @param rootDispersion Total dispersion to the primary reference at
+     *                       <code>referenceTime</code>, as 16.16 fixed-point
+     *                       seconds.
+     ***/
+    public void setReference(int stratum, int referenceId, long referenceTime, int rootDelay,
+        int rootDispersion)
+    {
+        _reference = new Reference(NtpV3Packet.LI_NO_WARNING, stratum, referenceId,
+            referenceTime, rootDelay, rootDispersion);
+    }
+
+    /***
+     * Makes the server reply unsynchronized again.
+     ***/
+    public void clearReference()
+    {
+        _reference = new Reference(NtpV3Packet.LI_ALARM_CONDITION, STRATUM_UNSYNCHRONIZED, 0,
+            0, 0, 0);
+    }
+
+    /***
+     * Answers requests until {@link #stop stop()} is called or the socket is
+     * closed. Packets that are not client requests are dropped.
+     * <p>
+     * @exception IOException If an error occurs while receiving or sending.
+     ***/
+    public void serve() throws IOException
+    {
+        if (_stopped)
+        {
+            return;
+        }
+        // if not connected then open to next available UDP port
+        if (!isOpen())
+        {
+            open();
+        }
+        // stop() closes the socket from another thread and clears the field
+        DatagramSocket socket = _socket_;
+
+        NtpV3Packet request = new NtpV3Impl();
+        DatagramPacket requestPacket = request.getDatagramPacket();
+        NtpV3Packet reply = new NtpV3Impl();
+        DatagramPacket replyPacket = reply.getDatagramPacket();
+
+        while (!_stopped)
+        {
+            try
+            {
+                requestPacket.setLength(requestPacket.getData().length);
+                socket.receive(requestPacket);
+                long receiveTime = TimeStamp.millisToNtpTime(System.currentTimeMillis());
+
+                int version = request.getVersion();
+                if (request.getMode() != NtpV3Packet.MODE_CLIENT
+                    || requestPacket.getLength() < requestPacket.getData().length
+                    || version < 1 || version > NtpV3Packet.VERSION_4)
+                {
+                    continue;
+                }
+
+                Reference ref = _reference;
+                reply.clear();
+                reply.setLeapIndicator(ref.leap);
+                reply.setVersion(version);
+                reply.setMode(NtpV3Packet.MODE_SERVER);
+                reply.setStratum(ref.stratum);
+                reply.setPoll(request.getPoll());
+                reply.setPrecision(PRECISION);
+                reply.setRootDelay(ref.rootDelay);
+                reply.setReferenceId(ref.referenceId);
+                reply.setReferenceTimeValue(ref.referenceTime);
+                reply.setOriginateTimeStampValue(request.getTransmitTimeStampValue());
+                reply.setReceiveTimeStampValue(receiveTime);
+                replyPacket.setAddress(requestPacket.getAddress());
+                replyPacket.setPort(requestPacket.getPort());
+
+                // keep the time between timestamping and sending as short as possible
+                long transmitTime = TimeStamp.millisToNtpTime(System.currentTimeMillis());
+                reply.setRootDispersion(rootDispersion(ref, transmitTime));
+                reply.setTransmitTimeValue(transmitTime);
+                socket.send(replyPacket);
+                _requests++;
+            }
+            catch (SocketException e)
+            {
+                if (_stopped)
+                {
+                    break; // closed by stop()
+                }
+                throw e;
+            }
+        }
+    }
+
+    /***
+     * Ends {@link #serve serve()} by closing the socket. A server that has
+     * been stopped does not serve again.
+     ***/
+    public void stop()
+    {
+        _stopped = true;
+        close();
+    }
+
+    /***
+     * Returns the number of requests answered by {@link #serve serve()}.
+     * Only meant for statistics, it is not synchronized.
+     *
+     * @return number of replies sent.
+     ***/
+    public long getRequestCount()
+    {
+        return _requests;
+    }
+
+    /***
+     * Root dispersion grown with the frequency tolerance since the
+     * reference time, as 16.16 fixed-point seconds capped at 16 s.
+     ***/
+    private static int rootDispersion(Reference ref, long now)
+    {
+        if (ref.stratum == STRATUM_UNSYNCHRONIZED)
+        {
+            return MAX_DISPERSION;
+        }
+        // 32.32 fixed-point seconds since the reference time, to 16.16
+        long elapsed = Math.max((now - ref.referenceTime) >> 16, 0);
+        long dispersion = (ref.rootDispersion & 0xffffffffL)
+            + elapsed * FREQUENCY_TOLERANCE_PPM / 1000000L;
+        return (int) Math.min(dispersion, MAX_DISPERSION);
+    }
+}
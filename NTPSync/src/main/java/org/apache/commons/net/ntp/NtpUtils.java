@@ -26,6 +26,15 @@ package org.apache.commons.net.ntp;
  */
 public final class NtpUtils {
 
+    /*** Kiss code of a server asking the client to reduce its rate (RFC 5905). ***/
+    public static final String KISS_RATE = "RATE";
+
+    /*** Kiss code of a server denying access for good (RFC 5905). ***/
+    public static final String KISS_DENY = "DENY";
+
+    /*** Kiss code of a server restricting access for good (RFC 5905). ***/
+    public static final String KISS_RSTR = "RSTR";
+
     /***
       * Returns 32-bit integer address to IPv4 address string "%d.%d.%d.%d" format.
       *
@@ -52,6 +61,22 @@ public final class NtpUtils {
          return getHostAddress(address);
      }
 
+    /***
+     * Returns the kiss code of a kiss-o'-death packet, a stratum 0 reply
+     * whose reference id holds an ASCII code like RATE, DENY or RSTR.
+     *
+     * @param message
+     * @return kiss code, or null if the packet is not a kiss-o'-death packet
+     */
+    public static String getKissCode(NtpV3Packet message)
+    {
+        if (message == null || message.getStratum() != 0)
+        {
+            return null;
+        }
+        return getReferenceClock(message);
+    }
+
     /***
      * Get refId as reference clock string (e.g. GPS, WWV, LCL). If string is
      * invalid (non-ASCII character) then returns empty string "".
@@ -17,10 +17,15 @@ package org.apache.commons.net.ntp;
  */
 
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /***
  * Implementation of NtpV3Packet with methods converting Java objects to/from
  * the Network Time Protocol (NTP) data message header format described in RFC-1305.
+ * The header is read and written in place through a ByteBuffer over the
+ * packet data; the <code>*Value</code> accessors work on primitive values and
+ * TimeStamp objects are only created by the TimeStamp accessors.
  *
  * @author Naz Irizarry, MITRE Corp
  * @author Jason Mathews, MITRE Corp
@@ -57,6 +62,8 @@ public class NtpV3Impl implements NtpV3Packet
 
     private final byte[] buf = new byte[48];
 
+    private final ByteBuffer bb = ByteBuffer.wrap(buf);
+
     private volatile DatagramPacket dp;
 
     /** Creates a new instance of NtpV3Impl */
@@ -229,6 +236,18 @@ public class NtpV3Impl implements NtpV3Packet
         return getInt(ROOT_DELAY_INDEX);
     }
 
+    /***
+     * Set root delay as defined in RFC-1305, a signed 16.16 fixed-point
+     * number of seconds.
+     *
+     * @param delay root delay.
+     */
+//    @Override
+    public void setRootDelay(int delay)
+    {
+        bb.putInt(ROOT_DELAY_INDEX, delay);
+    }
+
     /***
      * Return root delay as defined in RFC-1305 in milliseconds, which is
      * the total roundtrip delay to the primary reference source, in
@@ -254,6 +273,18 @@ public class NtpV3Impl implements NtpV3Packet
         return getInt(ROOT_DISPERSION_INDEX);
     }
 
+    /***
+     * Set root dispersion as defined in RFC-1305, an unsigned 16.16
+     * fixed-point number of seconds.
+     *
+     * @param dispersion root dispersion.
+     */
+//    @Override
+    public void setRootDispersion(int dispersion)
+    {
+        bb.putInt(ROOT_DISPERSION_INDEX, dispersion);
+    }
+
     /***
      * Returns root dispersion (as defined in RFC-1305) in milliseconds.
      *
@@ -288,10 +319,7 @@ public class NtpV3Impl implements NtpV3Packet
 //    @Override
     public void setReferenceId(int refId)
     {
-        for (int i = 3; i >= 0; i--) {
-            buf[REFERENCE_ID_INDEX + i] = (byte) (refId & 0xff);
-            refId >>>= 8; // shift right one-byte
-        }
+        bb.putInt(REFERENCE_ID_INDEX, refId);
     }
 
     /***
@@ -463,6 +491,94 @@ public class NtpV3Impl implements NtpV3Packet
         setTimestamp(RECEIVE_TIMESTAMP_INDEX, ts);
     }
 
+    /***
+     * Returns the transmit timestamp as 64-bit NTP timestamp value.
+     *
+     * @return the transmit timestamp as defined in RFC-1305.
+     */
+//    @Override
+    public long getTransmitTimeStampValue()
+    {
+        return getLong(TRANSMIT_TIMESTAMP_INDEX);
+    }
+
+    /***
+     * Returns the reference time as 64-bit NTP timestamp value.
+     *
+     * @return the reference time as defined in RFC-1305.
+     */
+//    @Override
+    public long getReferenceTimeStampValue()
+    {
+        return getLong(REFERENCE_TIMESTAMP_INDEX);
+    }
+
+    /***
+     * Returns the originate time as 64-bit NTP timestamp value.
+     *
+     * @return the originate time as defined in RFC-1305.
+     */
+//    @Override
+    public long getOriginateTimeStampValue()
+    {
+        return getLong(ORIGINATE_TIMESTAMP_INDEX);
+    }
+
+    /***
+     * Returns the receive time as 64-bit NTP timestamp value.
+     *
+     * @return the receive time as defined in RFC-1305.
+     */
+//    @Override
+    public long getReceiveTimeStampValue()
+    {
+        return getLong(RECEIVE_TIMESTAMP_INDEX);
+    }
+
+    /***
+     * Set transmit time with 64-bit NTP timestamp value.
+     *
+     * @param ntpTime NTP timestamp
+     */
+//    @Override
+    public void setTransmitTimeValue(long ntpTime)
+    {
+        bb.putLong(TRANSMIT_TIMESTAMP_INDEX, ntpTime);
+    }
+
+    /***
+     * Set reference time with 64-bit NTP timestamp value.
+     *
+     * @param ntpTime NTP timestamp
+     */
+//    @Override
+    public void setReferenceTimeValue(long ntpTime)
+    {
+        bb.putLong(REFERENCE_TIMESTAMP_INDEX, ntpTime);
+    }
+
+    /***
+     * Set originate time with 64-bit NTP timestamp value.
+     *
+     * @param ntpTime NTP timestamp
+     */
+//    @Override
+    public void setOriginateTimeStampValue(long ntpTime)
+    {
+        bb.putLong(ORIGINATE_TIMESTAMP_INDEX, ntpTime);
+    }
+
+    /***
+     * Set receive time with 64-bit NTP timestamp value.
+     *
+     * @param ntpTime NTP timestamp
+     */
+//    @Override
+    public void setReceiveTimeStampValue(long ntpTime)
+    {
+        bb.putLong(RECEIVE_TIMESTAMP_INDEX, ntpTime);
+    }
+
     /***
      * Return type of time packet. The values (e.g. NTP, TIME, ICMP, ...)
      * correspond to the protocol used to obtain the timing information.
@@ -480,12 +596,7 @@ public class NtpV3Impl implements NtpV3Packet
      */
     private int getInt(int index)
     {
-        int i = ui(buf[index]) << 24 |
-                ui(buf[index + 1]) << 16 |
-                ui(buf[index + 2]) << 8 |
-                ui(buf[index + 3]);
-
-        return i;
+        return bb.getInt(index);
     }
 
     /***
@@ -506,15 +617,7 @@ public class NtpV3Impl implements NtpV3Packet
      */
     private long getLong(int index)
     {
-        long i = ul(buf[index]) << 56 |
-                ul(buf[index + 1]) << 48 |
-                ul(buf[index + 2]) << 40 |
-                ul(buf[index + 3]) << 32 |
-                ul(buf[index + 4]) << 24 |
-                ul(buf[index + 5]) << 16 |
-                ul(buf[index + 6]) << 8 |
-                ul(buf[index + 7]);
-        return i;
+        return bb.getLong(index);
     }
 
     /***
@@ -526,12 +629,7 @@ public class NtpV3Impl implements NtpV3Packet
     private void setTimestamp(int index, TimeStamp t)
     {
         long ntpTime = (t == null) ? 0 : t.ntpValue();
-        // copy 64-bits from Long value into 8 x 8-bit bytes of array
-        // one byte at a time shifting 8-bits for each position.
-        for (int i = 7; i >= 0; i--) {
-            buf[index + i] = (byte) (ntpTime & 0xFF);
-            ntpTime >>>= 8; // shift to next byte
-        }
+        bb.putLong(index, ntpTime);
         // buf[index] |= 0x80;  // only set if 1900 baseline....
     }
 
@@ -550,6 +648,33 @@ public class NtpV3Impl implements NtpV3Packet
         return dp;
     }
 
+    /***
+     * Returns the byte buffer backed by the NTP message header. It shares
+     * its data with the datagram packet, so a message received into either
+     * of them can be read through this object.
+     *
+     * @return the byte buffer.
+     */
+//    @Override
+    public ByteBuffer getByteBuffer()
+    {
+        return bb;
+    }
+
+    /***
+     * Set all fields of the message header to zero, e.g. to reuse this
+     * object for another message.
+     */
+//    @Override
+    public void clear()
+    {
+        Arrays.fill(buf, (byte) 0);
+        bb.clear();
+        if (dp != null) {
+            dp.setLength(buf.length);
+        }
+    }
+
     /***
      * Set the contents of this object from source datagram packet.
      *
@@ -18,6 +18,7 @@ package org.apache.commons.net.ntp;
 
 
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for a NtpV3Packet with get/set methods corresponding to the fields
@@ -77,6 +78,18 @@ public interface NtpV3Packet
      */
     public void setDatagramPacket(DatagramPacket dp);
 
+    /**
+     * @return a byte buffer backed by the NTP message header, shared with
+     * the datagram packet. The get/set methods use absolute positions, so
+     * position and limit are left to the caller.
+     */
+    public ByteBuffer getByteBuffer();
+
+    /**
+     * Set all fields of the message header to zero.
+     */
+    public void clear();
+
     /**
      * @return leap indicator as defined in RFC-1305
      */
@@ -120,11 +133,21 @@ public interface NtpV3Packet
      */
     public int getPrecision();
 
+    /**
+     * Set precision as defined in RFC-1305 (log2 seconds).
+     */
+    public void setPrecision(int precision);
+
     /**
      * @return root delay as defined in RFC-1305
      */
     public int getRootDelay();
 
+    /**
+     * Set root delay as defined in RFC-1305 (16.16 fixed-point seconds).
+     */
+    public void setRootDelay(int delay);
+
     /**
      * @return root delay in milliseconds
      */
@@ -135,6 +158,11 @@ public interface NtpV3Packet
      */
     public int getRootDispersion();
 
+    /**
+     * Set root dispersion as defined in RFC-1305 (16.16 fixed-point seconds).
+     */
+    public void setRootDispersion(int dispersion);
+
     /**
      * @return root dispersion in milliseconds
      */
@@ -201,6 +229,27 @@ public interface NtpV3Packet
      */
     public TimeStamp getReceiveTimeStamp();
 
+    /**
+     * @return the transmit timestamp as 64-bit NTP timestamp value,
+     * without creating a TimeStamp object
+     */
+    public long getTransmitTimeStampValue();
+
+    /**
+     * @return the reference time as 64-bit NTP timestamp value
+     */
+    public long getReferenceTimeStampValue();
+
+    /**
+     * @return the originate time as 64-bit NTP timestamp value
+     */
+    public long getOriginateTimeStampValue();
+
+    /**
+     * @return the receive time as 64-bit NTP timestamp value
+     */
+    public long getReceiveTimeStampValue();
+
     /**
      * Set the transmit timestamp given NTP TimeStamp object.
      * @param ts - timestamp
@@ -225,6 +274,30 @@ public interface NtpV3Packet
      */
     public void setReceiveTimeStamp(TimeStamp ts);
 
+    /**
+     * Set the transmit timestamp given 64-bit NTP timestamp value.
+     * @param ntpTime - timestamp
+     */
+    public void setTransmitTimeValue(long ntpTime);
+
+    /**
+     * Set the reference timestamp given 64-bit NTP timestamp value.
+     * @param ntpTime - timestamp
+     */
+    public void setReferenceTimeValue(long ntpTime);
+
+    /**
+     * Set originate timestamp given 64-bit NTP timestamp value.
+     * @param ntpTime - timestamp
+     */
+    public void setOriginateTimeStampValue(long ntpTime);
+
+    /**
+     * Set receive timestamp given 64-bit NTP timestamp value.
+     * @param ntpTime - timestamp
+     */
+    public void setReceiveTimeStampValue(long ntpTime);
+
     /**
      * Return type of time packet. The values (e.g. NTP, TIME, ICMP, ...)
      * correspond to the protocol used to obtain the timing information.
@@ -17,9 +17,10 @@ package org.apache.commons.net.ntp;
  */
 
 
+import java.net.DatagramPacket;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Wrapper class to network time packet messages (NTP, etc) that computes
@@ -33,13 +34,16 @@ public class TimeInfo {
 
     private final NtpV3Packet _message;
     private List<String> _comments;
-    private Double _delay; // nanoseconds
-    private Double _offset; // nanoseconds
+    private long _delay; // nanoseconds
+    private long _offset; // nanoseconds
+    private boolean _hasDelay;
+    private boolean _hasOffset;
 
     /**
-     * time at which time message packet was received by local machine
+     * time at which time message packet was received by local machine,
+     * as 64-bit NTP timestamp value
      */
-    private final TimeStamp _returnTime;
+    private final long _returnTime;
 
     /**
      * flag indicating that the TimeInfo details was processed and delay/offset were computed
@@ -100,6 +104,28 @@ public class TimeInfo {
      */
     public TimeInfo(NtpV3Packet message, TimeStamp returnTime, List<String> comments,
                    boolean doComputeDetails)
+    {
+        this(message, returnTime == null ? 0 : returnTime.ntpValue(), comments,
+                doComputeDetails);
+    }
+
+    /**
+     * Create TimeInfo object with raw packet message and destination time
+     * received as 64-bit NTP timestamp value, which spares creating a
+     * TimeStamp object per message.
+     *
+     * @param message NTP message packet
+     * @param returnTime  destination receive time as 64-bit NTP timestamp value
+     * @param doComputeDetails  flag to pre-compute delay/offset values
+     * @throws IllegalArgumentException if message is null
+     */
+    public TimeInfo(NtpV3Packet message, long returnTime, boolean doComputeDetails)
+    {
+        this(message, returnTime, null, doComputeDetails);
+    }
+
+    private TimeInfo(NtpV3Packet message, long returnTime, List<String> comments,
+                   boolean doComputeDetails)
     {
         if (message == null) {
             throw new IllegalArgumentException("message cannot be null");
@@ -142,19 +168,19 @@ public class TimeInfo {
         }
 
         // Originate Time is local time received by server (t1)
-        TimeStamp origNtpTime = _message.getOriginateTimeStamp();
-        double origTime = origNtpTime.getNanos();
+        long origNtpTime = _message.getOriginateTimeStampValue();
+        long origTime = TimeStamp.getTimeNanos(origNtpTime);
 
         // Receive Time is time request received by server (t2)
-        TimeStamp rcvNtpTime = _message.getReceiveTimeStamp();
-        double rcvTime = rcvNtpTime.getNanos();
+        long rcvNtpTime = _message.getReceiveTimeStampValue();
+        long rcvTime = TimeStamp.getTimeNanos(rcvNtpTime);
 
         // Transmit time is time reply sent by server (t3)
-        TimeStamp xmitNtpTime = _message.getTransmitTimeStamp();
-        double xmitTime = xmitNtpTime.getNanos();
+        long xmitNtpTime = _message.getTransmitTimeStampValue();
+        long xmitTime = TimeStamp.getTimeNanos(xmitNtpTime);
 
         // Destination Time is local time of transmission (t4)
-        double destTime = _returnTime.getNanos();
+        long destTime = TimeStamp.getTimeNanos(_returnTime);
 
         /*
          * Round-trip network delay and local clock offset (or time drift) is calculated
@@ -171,19 +197,24 @@ public class TimeInfo {
          *
          * Note the typo in SNTP RFCs 1769/2030 which state that the delay
          * is (T4 - T1) - (T2 - T3) with the "T2" and "T3" switched.
+         *
+         * All arithmetic is done on long nanoseconds, which represent the
+         * timestamps exactly to the nanosecond; a double only resolves 256 ns
+         * at current epoch values. Even the offset of the elapsed real time
+         * (which starts at 1970 on boot) does not overflow before 2262.
          */
-        if (origNtpTime.ntpValue() == 0)
+        if (origNtpTime == 0)
         {
             // without originate time cannot determine when packet went out
             // might be via a broadcast NTP packet...
-            if (xmitNtpTime.ntpValue() != 0)
+            if (xmitNtpTime != 0)
             {
-                _offset = Double.valueOf(xmitTime - destTime);
+                setOffset(xmitTime - destTime);
                 _comments.add("Error: zero orig time -- cannot compute delay");
             } else {
                 _comments.add("Error: zero orig time -- cannot compute delay/offset");
             }
-        } else if (rcvNtpTime.ntpValue() == 0 || xmitNtpTime.ntpValue() == 0) {
+        } else if (rcvNtpTime == 0 || xmitNtpTime == 0) {
             _comments.add("Warning: zero rcvNtpTime or xmitNtpTime");
             // assert destTime >= origTime since network delay cannot be negative
             if (origTime > destTime) {
@@ -191,24 +222,24 @@ public class TimeInfo {
             } else {
                 // without receive or xmit time cannot figure out processing time
                 // so delay is simply the network travel time
-                _delay = Double.valueOf(destTime - origTime);
+                setDelay(destTime - origTime);
             }
             // TODO: is offset still valid if rcvNtpTime=0 || xmitNtpTime=0 ???
             // Could always hash origNtpTime (sendTime) but if host doesn't set it
             // then it's an malformed ntp host anyway and we don't care?
             // If server is in broadcast mode then we never send out a query in first place...
-            if (rcvNtpTime.ntpValue() != 0)
+            if (rcvNtpTime != 0)
             {
                 // xmitTime is 0 just use rcv time
-                _offset = Double.valueOf(rcvTime - origTime);
-            } else if (xmitNtpTime.ntpValue() != 0)
+                setOffset(rcvTime - origTime);
+            } else if (xmitNtpTime != 0)
             {
                 // rcvTime is 0 just use xmitTime time
-                _offset = Double.valueOf(xmitTime - destTime);
+                setOffset(xmitTime - destTime);
             }
         } else
         {
-            double delayValue = destTime - origTime;
+            long delayValue = destTime - origTime;
             // assert xmitTime >= rcvTime: difference typically < 1ms
             if (xmitTime < rcvTime)
             {
@@ -217,18 +248,30 @@ public class TimeInfo {
             } else
             {
                  // subtract processing time from round-trip network delay
-                 double delta = xmitTime - rcvTime;
+                 long delta = xmitTime - rcvTime;
                  delayValue -= delta; // delay = (t4 - t1) - (t3 - t2)
             }
-            _delay = Double.valueOf(delayValue);
+            setDelay(delayValue);
             if (origTime > destTime) {
                 _comments.add("Error: OrigTime > DestRcvTime");
             }
 
-            _offset = Double.valueOf(((rcvTime - origTime) + (xmitTime - destTime)) / 2);
+            setOffset(((rcvTime - origTime) + (xmitTime - destTime)) / 2);
         }
     }
 
+    private void setDelay(long delay)
+    {
+        _delay = delay;
+        _hasDelay = true;
+    }
+
+    private void setOffset(long offset)
+    {
+        _offset = offset;
+        _hasOffset = true;
+    }
+
     /**
      * Return list of comments (if any) during processing of NTP packet.
      *
@@ -247,10 +290,10 @@ public class TimeInfo {
      */
     public Long getDelayMs()
     {
-        if (_delay == null) {
+        if (!_hasDelay) {
             return null;
         }
-        return TimeUnit.MILLISECONDS.convert(Math.round(_delay), TimeUnit.NANOSECONDS);
+        return Long.valueOf(_delay / TimeStamp.NS_PER_MS);
     }
 
     /**
@@ -261,10 +304,10 @@ public class TimeInfo {
      */
     public Long getOffsetMs()
     {
-        if (_offset == null) {
+        if (!_hasOffset) {
             return null;
         }
-        return TimeUnit.MILLISECONDS.convert(Math.round(_offset), TimeUnit.NANOSECONDS);
+        return Long.valueOf(_offset / TimeStamp.NS_PER_MS);
     }
 
     /**
@@ -275,7 +318,7 @@ public class TimeInfo {
      */
     public Double getDelayNs()
     {
-        return _delay;
+        return _hasDelay ? Double.valueOf(_delay) : null;
     }
 
     /**
@@ -285,6 +328,43 @@ public class TimeInfo {
      * @return Double or null if offset not available.
      */
     public Double getOffsetNs()
+    {
+        return _hasOffset ? Double.valueOf(_offset) : null;
+    }
+
+    /**
+     * @return true if the round-trip network delay could be computed.
+     */
+    public boolean hasDelay()
+    {
+        return _hasDelay;
+    }
+
+    /**
+     * @return true if the clock offset could be computed.
+     */
+    public boolean hasOffset()
+    {
+        return _hasOffset;
+    }
+
+    /**
+     * Get round-trip network delay in nanoseconds without boxing.
+     *
+     * @return delay, or 0 if not available (see {@link #hasDelay()}).
+     */
+    public long getDelayNsValue()
+    {
+        return _delay;
+    }
+
+    /**
+     * Get clock offset needed to adjust local clock to match remote clock in
+     * nanoseconds without boxing.
+     *
+     * @return offset, or 0 if not available (see {@link #hasOffset()}).
+     */
+    public long getOffsetNsValue()
     {
         return _offset;
     }
@@ -299,12 +379,34 @@ public class TimeInfo {
         return _message;
     }
 
+    /**
+     * Returns the address of the server that sent the NTP message packet.
+     *
+     * @return address of the server or null if the packet was not received from the network.
+     */
+    public InetAddress getAddress()
+    {
+        DatagramPacket pkt = _message.getDatagramPacket();
+        return pkt == null ? null : pkt.getAddress();
+    }
+
     /**
      * Returns time at which time message packet was received by local machine.
      *
      * @return packet return time.
      */
     public TimeStamp getReturnTime()
+    {
+        return new TimeStamp(_returnTime);
+    }
+
+    /**
+     * Returns time at which time message packet was received by local machine
+     * as 64-bit NTP timestamp value.
+     *
+     * @return packet return time.
+     */
+    public long getReturnTimeValue()
     {
         return _returnTime;
     }
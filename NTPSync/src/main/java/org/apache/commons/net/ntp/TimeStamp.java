@@ -226,8 +226,9 @@ public class TimeStamp implements java.io.Serializable, Comparable<TimeStamp>
         long seconds = (ntpTimeValue >>> 32) & 0xffffffffL;     // high-order 32-bits
         long fraction = ntpTimeValue & 0xffffffffL;             // low-order 32-bits
 
-        // Use round-off on fractional part to preserve going to lower precision
-        fraction = Math.round((double)NS_PER_SEC / 0x100000000L * fraction);
+        // Use round-off on fractional part to preserve going to lower precision,
+        // fraction * NS_PER_SEC cannot overflow as fraction < 2^32
+        fraction = (fraction * NS_PER_SEC + 0x80000000L) >>> 32;
 
         /*
          * If the most significant bit (MSB) on the seconds field is set we use
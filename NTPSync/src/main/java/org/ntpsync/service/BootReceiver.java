@@ -40,6 +40,12 @@ public class BootReceiver extends BroadcastReceiver {
             if (PreferenceHelper.getSetOnBoot(appContext)) {
                 new DailyListener().sendWakefulWork(appContext);
             }
+
+            // if serving time to the local network is enabled
+            NtpServerService.startOrStop(appContext);
+
+            // alarms do not survive a reboot
+            DriftCorrectionService.schedule(appContext);
         }
     }
 }
@@ -21,11 +21,11 @@
 package org.ntpsync.service;
 
 import org.ntpsync.util.Constants;
+import org.ntpsync.util.DnsCache;
 import org.ntpsync.util.Log;
+import org.ntpsync.util.NtpSyncUtils;
 import org.ntpsync.util.PreferenceHelper;
 
-import com.commonsware.cwac.wakeful.WakefulIntentService;
-
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
@@ -64,13 +64,16 @@ public class ConnectivityReceiver extends BroadcastReceiver {
                                 || (netInfo.getType() == ConnectivityManager.TYPE_WIFI)
                                 || (netInfo.getType() == ConnectivityManager.TYPE_ETHERNET)) {
                             Log.d(Constants.TAG,
-                                    "We have internet, start sync and disable receiver!");
+                                    "We have internet, schedule sync and disable receiver!");
+
+                            // resolve while the sync is pending
+                            DnsCache.preResolve(NtpSyncUtils.parseServers(PreferenceHelper
+                                    .getNtpServer(context)));
 
-                            // Start service with wakelock by using WakefulIntentService
-                            Intent backgroundIntent = new Intent(context, BackgroundService.class);
-                            WakefulIntentService.sendWakefulWork(context, backgroundIntent);
+                            // many devices regain the network at once, spread their syncs
+                            DailyListener.scheduleDeferredSync(context);
 
-                            // disable receiver after we started the service
+                            // disable receiver after we scheduled the sync
                             disableReceiver(context);
                         }
                     }
@@ -20,13 +20,13 @@
 
 package org.ntpsync.service;
 
-import java.util.Calendar;
-
 import org.ntpsync.util.Constants;
 import org.ntpsync.util.Log;
+import org.ntpsync.util.PollScheduler;
 import org.ntpsync.util.PreferenceHelper;
+import org.ntpsync.util.SyncSchedule;
 
-import com.commonsware.cwac.wakeful.WakefulIntentService;
+import com.commonsware.cwac.wakeful.AlarmReceiver;
 import com.commonsware.cwac.wakeful.WakefulIntentService.AlarmListener;
 
 import android.app.AlarmManager;
@@ -35,28 +35,48 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.SystemClock;
 
+/**
+ * Schedules the background sync with the interval of {@link PollScheduler}, at least daily. The
+ * alarm is rescheduled after every sync, as the interval adapts to the stability of the clock.
+ * Syncs fall on the slots of this device given by {@link SyncSchedule}, so that not all devices
+ * sync at the same time.
+ */
 public class DailyListener implements AlarmListener {
+    /** request code of the alarm of a sync deferred until the network returned */
+    private static final int REQUEST_DEFERRED = 1;
+
     public void scheduleAlarms(AlarmManager mgr, PendingIntent pi, Context context) {
         // register when enabled in preferences
         if (PreferenceHelper.getSyncDaily(context)) {
-            Log.i(Constants.TAG, "Schedule daily sync...");
+            long interval = PollScheduler.getIntervalMs(context);
+            long next = SyncSchedule.getNextSyncMs(context, System.currentTimeMillis(), interval);
+            Log.i(Constants.TAG, "Schedule sync every " + interval / 1000 + " s, next at "
+                    + next + "...");
 
-            // every day at 9 am
-            Calendar calendar = Calendar.getInstance();
-            // if it's after or equal 9 am schedule for next day
-            if (Calendar.getInstance().get(Calendar.HOUR_OF_DAY) >= 9) {
-                calendar.add(Calendar.DAY_OF_YEAR, 1); // add, not set!
-            }
-            calendar.set(Calendar.HOUR_OF_DAY, 9);
-            calendar.set(Calendar.MINUTE, 0);
-            calendar.set(Calendar.SECOND, 0);
-
-            mgr.setInexactRepeating(AlarmManager.RTC, calendar.getTimeInMillis(),
-                    AlarmManager.INTERVAL_DAY, pi);
+            // repeating, so syncs go on at this interval if one fails
+            mgr.setInexactRepeating(AlarmManager.RTC, next, interval, pi);
         }
     }
 
+    /**
+     * Schedules a single sync after a random delay, used when the network returned. Goes
+     * through {@link AlarmReceiver} like the regular syncs, so connectivity is checked again
+     * when the sync is due.
+     * 
+     * @param context
+     */
+    public static void scheduleDeferredSync(Context context) {
+        AlarmManager mgr = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pi = PendingIntent.getBroadcast(context, REQUEST_DEFERRED, new Intent(
+                context, AlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+
+        long delay = SyncSchedule.getDeferDelayMs();
+        Log.d(Constants.TAG, "Deferred sync in " + delay / 1000 + " s...");
+        mgr.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + delay, pi);
+    }
+
     public void sendWakefulWork(Context context) {
         ConnectivityManager cm = (ConnectivityManager) context
                 .getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -72,8 +92,7 @@ public class DailyListener implements AlarmListener {
                     || (netInfo.getType() == ConnectivityManager.TYPE_WIFI)) {
                 Log.d(Constants.TAG, "We have internet, start sync directly now!");
 
-                Intent backgroundIntent = new Intent(context, BackgroundService.class);
-                WakefulIntentService.sendWakefulWork(context, backgroundIntent);
+                NtpSyncService.startBackgroundSync(context);
             } else {
                 Log.d(Constants.TAG, "We have no internet, enable ConnectivityReceiver!");
 
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.service;
+
+import java.util.concurrent.locks.Lock;
+
+import org.ntpsync.util.Constants;
+import org.ntpsync.util.DriftEstimator;
+import org.ntpsync.util.Log;
+import org.ntpsync.util.PreferenceHelper;
+import org.ntpsync.util.Utils;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Corrects the system time between network syncs by the offset predicted from the frequency error
+ * of the local clock, see {@link DriftEstimator}. Runs from an alarm that does not wake up the
+ * device and uses no network. The alarm is set for when the predicted offset reaches 50 ms, so
+ * a good oscillator needs the root shell only every few hours or less. The correction is always
+ * slewed instead of stepped: if the alarm was deferred or the oscillator is bad, only up to
+ * {@link Utils#SLEW_THRESHOLD_MS} are corrected and the rest is left to the next network sync.
+ *
+ * The correction runs as a background job of the {@link JobEngine}, which keeps the device awake
+ * while the clock is slewed. It waits for syncs in flight, see {@link SyncCoordinator#clockLock},
+ * so an offset a sync measured is not corrected twice.
+ */
+public class DriftCorrectionService extends Service {
+    private static final long NS_PER_MS = 1000000L;
+
+    /** corrections smaller than this are not worth a root shell */
+    static final long MIN_CORRECTION_NS = 50 * NS_PER_MS;
+
+    /** bounds of the time between corrections */
+    static final long MIN_INTERVAL_MS = AlarmManager.INTERVAL_HOUR;
+    static final long MAX_INTERVAL_MS = AlarmManager.INTERVAL_DAY;
+
+    /** deadline of the job, beyond a sync it may wait for and the longest slew */
+    private static final long TIMEOUT_MS = 3 * 60 * 1000L;
+
+    /** key of the job, a correction is not queued twice */
+    private static final String JOB_KEY_DRIFT_CORRECTION = "drift_correction";
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** jobs of this service not finished yet, only accessed on the main thread */
+    private int mJobs;
+    private int mLastStartId;
+
+    /**
+     * Schedules the next correction if it is enabled in the preferences and the frequency error
+     * is known, cancels it otherwise
+     * 
+     * @param context
+     */
+    public static void schedule(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, new Intent(context,
+                DriftCorrectionService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+
+        double ppm = DriftEstimator.getFrequencyPpm(context);
+        if (PreferenceHelper.getDriftCorrection(context) && !Double.isNaN(ppm)) {
+            long delayMs = getDelayMs(ppm, DriftEstimator.getPredictedOffsetNs(context));
+            Log.d(Constants.TAG, "Schedule drift correction in " + delayMs / 1000 + " s...");
+
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime()
+                    + delayMs, pendingIntent);
+        } else {
+            alarmManager.cancel(pendingIntent);
+        }
+    }
+
+    /**
+     * @param ppm
+     *            frequency error of the clock, the drift in nanoseconds per millisecond
+     * @param predictedNs
+     *            offset accumulated so far
+     * @return time until the predicted offset reaches MIN_CORRECTION_NS, within one hour and one
+     *         day
+     */
+    static long getDelayMs(double ppm, long predictedNs) {
+        double remainingNs = Math.max(MIN_CORRECTION_NS - Math.abs(predictedNs), 0);
+        double delayMs = (ppm == 0) ? MAX_INTERVAL_MS : remainingNs / Math.abs(ppm);
+        return Math.max(MIN_INTERVAL_MS, Math.min(Math.round(delayMs), MAX_INTERVAL_MS));
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Hands the correction to the {@link JobEngine}, the service stops when it is finished
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+
+        JobEngine.Job job = new JobEngine.Job(JobEngine.PRIORITY_BACKGROUND, TIMEOUT_MS,
+                JOB_KEY_DRIFT_CORRECTION) {
+            @Override
+            protected void execute() {
+                correct();
+            }
+
+            @Override
+            protected void onFinished() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mJobs--;
+                        stopIfIdle();
+                    }
+                });
+            }
+        };
+
+        if (JobEngine.submit(this, job)) {
+            mJobs++;
+        } else {
+            stopIfIdle();
+        }
+        return START_NOT_STICKY;
+    }
+
+    private void stopIfIdle() {
+        if (mJobs == 0) {
+            stopSelf(mLastStartId);
+        }
+    }
+
+    private void correct() {
+        if (!PreferenceHelper.getDriftCorrection(this)) {
+            return;
+        }
+
+        Lock lock = SyncCoordinator.clockLock.writeLock();
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Log.d(Constants.TAG, "Drift correction cancelled!");
+            return;
+        }
+        try {
+            // a sync that just finished has reset the prediction
+            long predicted = DriftEstimator.getPredictedOffsetNs(this);
+            Log.d(Constants.TAG, "Predicted offset: " + predicted + " ns ("
+                    + DriftEstimator.getFrequencyPpm(this) + " ppm)");
+
+            if (Math.abs(predicted) >= MIN_CORRECTION_NS) {
+                // larger offsets would be stepped
+                long offset = Math.round(predicted / (double) NS_PER_MS);
+                Utils.slewTime(this, Math.max(-Utils.SLEW_THRESHOLD_MS,
+                        Math.min(offset, Utils.SLEW_THRESHOLD_MS)));
+            }
+        } finally {
+            lock.unlock();
+        }
+        schedule(this);
+    }
+}
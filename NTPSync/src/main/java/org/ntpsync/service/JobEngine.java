@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.ntpsync.util.Constants;
+import org.ntpsync.util.Log;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
+
+/**
+ * Process-wide engine running the work of the services on a small pool of threads. Queued jobs
+ * run in order of priority, interactive jobs before background jobs. Running jobs are not
+ * preempted, so an interactive job may still wait for background jobs that occupy all threads,
+ * at most until their deadline. Background jobs with the same key are coalesced, so repeated
+ * alarms do not pile up work.
+ *
+ * Every job has a deadline: it is dropped if it is still queued then and cancelled if it still
+ * runs. One wake lock is held while jobs are outstanding, with a timeout at the latest deadline,
+ * so a hanging job cannot keep the device awake.
+ */
+public class JobEngine {
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    /** threads running jobs */
+    static final int MAX_THREADS = 2;
+
+    /** idle threads end after this time */
+    private static final long KEEP_ALIVE_MS = 30 * 1000L;
+
+    private static ThreadPoolExecutor sExecutor;
+    private static ScheduledExecutorService sWatchdog;
+    private static WakeLock sWakeLock;
+
+    /** jobs queued or running */
+    private static final Set<Job> outstanding = new HashSet<Job>();
+
+    /** jobs submitted so far, orders jobs of the same priority */
+    private static long sSequence;
+
+    /** elapsed real time until which the wake lock is held without jobs */
+    private static long sHoldUntilMs;
+
+    /** job running on the current thread of the engine */
+    private static final ThreadLocal<Job> current = new ThreadLocal<Job>();
+
+    /**
+     * Unit of work. Subclasses implement {@link #execute()}, which should give up when the job is
+     * cancelled: the thread is interrupted, unless a cancel handler was set with
+     * {@link JobEngine#setCancelHandler(Runnable)} for a blocking operation an interrupt would
+     * break.
+     */
+    public static abstract class Job implements Runnable, Comparable<Job> {
+        private final int mPriority;
+        private final long mTimeoutMs;
+        private final String mKey;
+        private long mSequence;
+        /** elapsed real time the job has to be finished at */
+        private long mDeadlineMs;
+        private Thread mThread;
+        private ScheduledFuture<?> mWatchdog;
+        private Runnable mCancelHandler;
+        private boolean mCancelled;
+
+        /**
+         * @param priority
+         *            one of the PRIORITY_* constants
+         * @param timeoutMs
+         *            time from submitting until the deadline
+         * @param key
+         *            background jobs with the same key are coalesced, null if never
+         */
+        public Job(int priority, long timeoutMs, String key) {
+            mPriority = priority;
+            mTimeoutMs = timeoutMs;
+            mKey = key;
+        }
+
+        /**
+         * Does the work of the job on a thread of the engine
+         */
+        protected abstract void execute();
+
+        /**
+         * Called once when the job finished, was cancelled or missed its deadline, on the thread
+         * of the engine or the one cancelling a queued job
+         */
+        protected void onFinished() {
+        }
+
+        @Override
+        public int compareTo(Job another) {
+            if (mPriority != another.mPriority) {
+                return (mPriority < another.mPriority) ? -1 : 1;
+            }
+            return (mSequence < another.mSequence) ? -1 : ((mSequence == another.mSequence) ? 0
+                    : 1);
+        }
+
+        @Override
+        public final void run() {
+            boolean dropped = false;
+            boolean started = false;
+            synchronized (outstanding) {
+                if (mCancelled || SystemClock.elapsedRealtime() >= mDeadlineMs) {
+                    Log.d(Constants.TAG, "Job " + mSequence + " dropped before it started");
+                    mCancelled = true;
+                    dropped = finish(this);
+                } else {
+                    started = true;
+                    mThread = Thread.currentThread();
+                    current.set(this);
+                    mWatchdog = sWatchdog.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            Log.d(Constants.TAG, "Job " + mSequence + " missed its deadline!");
+                            cancel();
+                        }
+                    }, mDeadlineMs - SystemClock.elapsedRealtime(), TimeUnit.MILLISECONDS);
+                }
+            }
+            if (!started) {
+                if (dropped) {
+                    onFinished();
+                }
+                return;
+            }
+
+            try {
+                execute();
+            } catch (RuntimeException e) {
+                Log.e(Constants.TAG, "Job " + mSequence + " failed!", e);
+            } finally {
+                synchronized (outstanding) {
+                    mThread = null;
+                    mCancelHandler = null;
+                    current.remove();
+                    mWatchdog.cancel(false);
+                    // an interrupt meant for this job must not hit the next one
+                    Thread.interrupted();
+                    finish(this);
+                }
+                onFinished();
+            }
+        }
+
+        /**
+         * Cancels the job. A queued job does not run, the cancel handler of a running job is
+         * called or else its thread is interrupted.
+         */
+        public void cancel() {
+            boolean removed = false;
+            Runnable handler = null;
+            synchronized (outstanding) {
+                mCancelled = true;
+                if (mThread != null) {
+                    handler = mCancelHandler;
+                    if (handler == null) {
+                        mThread.interrupt();
+                    }
+                } else if (outstanding.contains(this) && sExecutor.remove(this)) {
+                    removed = finish(this);
+                }
+            }
+            if (handler != null) {
+                handler.run();
+            }
+            if (removed) {
+                onFinished();
+            }
+        }
+
+        /**
+         * @return true if the job was cancelled or missed its deadline
+         */
+        public boolean isCancelled() {
+            synchronized (outstanding) {
+                return mCancelled;
+            }
+        }
+    }
+
+    private static void init(Context context) {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_MS,
+                    TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+            sExecutor.allowCoreThreadTimeOut(true);
+            sWatchdog = Executors.newSingleThreadScheduledExecutor();
+
+            sWakeLock = ((PowerManager) context.getApplicationContext().getSystemService(
+                    Context.POWER_SERVICE)).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                    "NtpSyncJobEngine");
+            sWakeLock.setReferenceCounted(false);
+        }
+    }
+
+    /**
+     * Queues a job
+     *
+     * @param context
+     * @param job
+     * @return true if the job was queued, false if it was coalesced with an outstanding
+     *         background job of the same key and does not run
+     */
+    public static boolean submit(Context context, Job job) {
+        synchronized (outstanding) {
+            init(context);
+
+            if (job.mKey != null && job.mPriority == PRIORITY_BACKGROUND) {
+                for (Job other : outstanding) {
+                    if (job.mKey.equals(other.mKey) && !other.mCancelled) {
+                        Log.d(Constants.TAG, "Job " + job.mKey + " is already outstanding");
+                        return false;
+                    }
+                }
+            }
+
+            job.mSequence = sSequence++;
+            job.mDeadlineMs = SystemClock.elapsedRealtime() + job.mTimeoutMs;
+            outstanding.add(job);
+            // the job the wake lock was held for has arrived, its deadline holds it from now on
+            sHoldUntilMs = 0;
+            updateWakeLock();
+        }
+        sExecutor.execute(job);
+        return true;
+    }
+
+    /**
+     * Keeps the device awake for a while without a job, to bridge the time until a service that
+     * submits jobs is started
+     *
+     * @param context
+     * @param timeoutMs
+     */
+    public static void holdWakeLock(Context context, long timeoutMs) {
+        synchronized (outstanding) {
+            init(context);
+            sHoldUntilMs = Math.max(sHoldUntilMs, SystemClock.elapsedRealtime() + timeoutMs);
+            updateWakeLock();
+        }
+    }
+
+    /**
+     * Sets what cancels the job running on the calling thread while it is in a blocking operation
+     * that an interrupt would break, like I/O on a channel. The handler is called instead of
+     * interrupting the thread, right away if the job has already been cancelled. Does nothing if
+     * the calling thread does not belong to the engine.
+     *
+     * @param handler
+     *            called at most once, null to interrupt again
+     */
+    public static void setCancelHandler(Runnable handler) {
+        Job job = current.get();
+        if (job == null) {
+            return;
+        }
+        synchronized (outstanding) {
+            job.mCancelHandler = handler;
+            if (handler == null || !job.mCancelled) {
+                return;
+            }
+            job.mCancelHandler = null;
+        }
+        handler.run();
+    }
+
+    /**
+     * Removes a job from the outstanding ones. Has to be called with the lock of outstanding
+     * held, {@link Job#onFinished()} is called by the caller afterwards without the lock.
+     */
+    private static boolean finish(Job job) {
+        if (outstanding.remove(job)) {
+            updateWakeLock();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Holds the wake lock until the latest deadline of the outstanding jobs, releases it when no
+     * job is left. Has to be called with the lock of outstanding held.
+     */
+    private static void updateWakeLock() {
+        long now = SystemClock.elapsedRealtime();
+        long until = sHoldUntilMs;
+        for (Job job : outstanding) {
+            until = Math.max(until, job.mDeadlineMs);
+        }
+
+        if (until > now) {
+            sWakeLock.acquire(until - now);
+        } else if (sWakeLock.isHeld()) {
+            sWakeLock.release();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.service;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.net.ntp.NTPUDPServer;
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.apache.commons.net.ntp.TimeInfo;
+import org.apache.commons.net.ntp.TimeStamp;
+import org.ntpsync.util.ClockSelection;
+import org.ntpsync.util.Constants;
+import org.ntpsync.util.Log;
+import org.ntpsync.util.PreferenceHelper;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+import android.net.wifi.WifiManager.WifiLock;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.PowerManager.WakeLock;
+
+/**
+ * Serves the system time to the local network as NTP server, so that one synced device can serve
+ * a whole fleet on an isolated network. The server replies unsynchronized until the system time
+ * has been set from NTP servers in this process, see {@link #updateReference(ClockSelection.Result)}.
+ */
+public class NtpServerService extends Service {
+    private static final long NS_PER_SEC = 1000000000L;
+
+    /** last synchronization source, applied to the server when it starts */
+    private static volatile ClockSelection.Result sReference;
+    private static volatile long sReferenceTime;
+
+    private static volatile NTPUDPServer sServer;
+
+    private NTPUDPServer mServer;
+    private WakeLock mWakeLock;
+    private WifiLock mWifiLock;
+
+    /**
+     * Starts the server if it is enabled in the preferences, stops it otherwise
+     * 
+     * @param context
+     */
+    public static void startOrStop(Context context) {
+        Intent intent = new Intent(context, NtpServerService.class);
+        if (PreferenceHelper.getNtpServerMode(context)) {
+            context.startService(intent);
+        } else {
+            context.stopService(intent);
+        }
+    }
+
+    /**
+     * Remembers the result the system time has just been set from as synchronization source of
+     * the server
+     * 
+     * @param result
+     */
+    public static void updateReference(ClockSelection.Result result) {
+        sReference = result;
+        sReferenceTime = TimeStamp.getNtpTimeFromMillis(System.currentTimeMillis()).ntpValue();
+
+        NTPUDPServer server = sServer;
+        if (server != null) {
+            applyReference(server);
+        }
+    }
+
+    private static void applyReference(NTPUDPServer server) {
+        ClockSelection.Result result = sReference;
+        if (result == null) {
+            server.clearReference();
+            return;
+        }
+        TimeInfo peer = result.getSystemPeer();
+        NtpV3Packet message = peer.getMessage();
+
+        // root delay and dispersion of this server as seen by its clients (RFC 5905 section 11.2)
+        long rootDelay = message.getRootDelay() + nanosToFixed(result.getDelayNs());
+        long rootDispersion = Math.max(nanosToFixed(result.getErrorBoundNs()) - rootDelay / 2, 0);
+
+        server.setReference(Math.min(message.getStratum() + 1,
+                NTPUDPServer.STRATUM_UNSYNCHRONIZED), referenceId(peer.getAddress()),
+                sReferenceTime, (int) rootDelay, (int) rootDispersion);
+    }
+
+    /**
+     * Converts nanoseconds to NTP short format (16.16 fixed-point seconds)
+     */
+    private static long nanosToFixed(long nanos) {
+        return (nanos << 16) / NS_PER_SEC;
+    }
+
+    /**
+     * Reference id of a server: its IPv4 address or the first four octets of the MD5 hash of its
+     * IPv6 address (RFC 5905 section 7.3)
+     */
+    private static int referenceId(InetAddress address) {
+        if (address == null) {
+            return 0;
+        }
+        byte[] bytes = address.getAddress();
+        if (!(address instanceof Inet4Address)) {
+            try {
+                bytes = MessageDigest.getInstance("MD5").digest(bytes);
+            } catch (NoSuchAlgorithmException e) {
+                return 0;
+            }
+        }
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8
+                | (bytes[3] & 0xff);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.d(Constants.TAG, "NtpServerService, onCreate()");
+
+        // serve requests while the screen is off
+        mWakeLock = ((PowerManager) getSystemService(Context.POWER_SERVICE)).newWakeLock(
+                PowerManager.PARTIAL_WAKE_LOCK, "NtpSyncServerWakeLock");
+        mWifiLock = ((WifiManager) getApplicationContext().getSystemService(
+                Context.WIFI_SERVICE)).createWifiLock(WifiManager.WIFI_MODE_FULL,
+                "NtpSyncServerWifiLock");
+    }
+
+    @Override
+    public synchronized int onStartCommand(Intent intent, int flags, int startId) {
+        if (mServer == null) {
+            final int port = PreferenceHelper.getNtpServerPort(this);
+            final NTPUDPServer server = new NTPUDPServer();
+            applyReference(server);
+            mServer = server;
+            sServer = server;
+
+            mWakeLock.acquire();
+            mWifiLock.acquire();
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        server.open(port);
+                        Log.d(Constants.TAG, "NTP server listening on port " + port);
+
+                        server.serve();
+                    } catch (IOException e) {
+                        Log.e(Constants.TAG, "NTP server failed!", e);
+                    } finally {
+                        server.close();
+                        Log.d(Constants.TAG, "NTP server stopped after " + server.getRequestCount()
+                                + " requests");
+                        onServerStopped(server);
+                    }
+                }
+            }, "NtpServer").start();
+        }
+
+        return START_STICKY;
+    }
+
+    /**
+     * Releases the locks and stops the service when the server ends on its own, e.g. because the
+     * port could not be opened
+     */
+    private synchronized void onServerStopped(NTPUDPServer server) {
+        if (mServer != server) {
+            // stopped by onDestroy()
+            return;
+        }
+        mServer = null;
+        sServer = null;
+        releaseLocks();
+        stopSelf();
+    }
+
+    private void releaseLocks() {
+        if (mWifiLock.isHeld()) {
+            mWifiLock.release();
+        }
+        if (mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+    }
+
+    @Override
+    public synchronized void onDestroy() {
+        super.onDestroy();
+        Log.d(Constants.TAG, "NtpServerService, onDestroy()");
+
+        if (mServer != null) {
+            mServer.stop();
+            mServer = null;
+            sServer = null;
+        }
+        releaseLocks();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -20,34 +20,123 @@
 
 package org.ntpsync.service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.ntpsync.util.ClockSelection;
 import org.ntpsync.util.Constants;
 import org.ntpsync.util.Log;
-import org.ntpsync.util.NtpSyncUtils;
+import org.ntpsync.util.OffsetCache;
 import org.ntpsync.util.PreferenceHelper;
-import org.ntpsync.util.Utils;
-import org.apache.commons.net.ntp.TimeInfo;
+import org.ntpsync.util.RateLimitedException;
+import org.ntpsync.util.SyncHistory;
+import org.ntpsync.util.TrueTimePublisher;
 
 import android.app.Service;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 /**
  * This class exposes the remote service to the client
  */
 public class NtpSyncRemoteService extends Service {
+    // kinds of requests
+    private static final int REQUEST_SYSTEM_TIME_OFFSET = 0;
+    private static final int REQUEST_ELAPSED_TIME_OFFSET = 1;
+    private static final int REQUEST_SET_TIME = 2;
+
+    /** threads running queries, further queries wait for a free one */
+    private static final int MAX_THREADS = 8;
+
+    /** most hostnames getSystemTimeOffsets accepts */
+    static final int MAX_BATCH = MAX_THREADS;
+
+    /** idle threads end after this time */
+    private static final long KEEP_ALIVE_MS = 30 * 1000L;
+
+    private ThreadPoolExecutor mExecutor;
+
+    /** asynchronous requests in progress by kind and hostname */
+    private final Map<String, PendingRequest> mPending = new HashMap<String, PendingRequest>();
+
+    /**
+     * Client waiting for the result of an asynchronous request
+     */
+    private static class Waiter {
+        final int mRequestId;
+        final INtpSyncRemoteCallback mCallback;
+
+        Waiter(int requestId, INtpSyncRemoteCallback callback) {
+            mRequestId = requestId;
+            mCallback = callback;
+        }
+    }
+
+    /**
+     * One request executed for all clients asking for the same kind and hostname meanwhile
+     */
+    private class PendingRequest implements Runnable {
+        final String mKey;
+        final int mKind;
+        final String mNtpHostname;
+        final List<Waiter> mWaiters = new ArrayList<Waiter>();
+        Future<?> mFuture;
+
+        PendingRequest(String key, int kind, String ntpHostname) {
+            mKey = key;
+            mKind = kind;
+            mNtpHostname = ntpHostname;
+        }
+
+        @Override
+        public void run() {
+            Bundle output = new Bundle();
+            int returnMessage = execute(mKind, mNtpHostname, output);
+
+            List<Waiter> waiters;
+            synchronized (mPending) {
+                // a cancelled request may already have been replaced by a new one
+                if (mPending.get(mKey) == this) {
+                    mPending.remove(mKey);
+                }
+                waiters = new ArrayList<Waiter>(mWaiters);
+                mWaiters.clear();
+            }
+            for (Waiter waiter : waiters) {
+                deliver(waiter, returnMessage, output);
+            }
+        }
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(Constants.TAG, "NtpSyncRemoteService, onCreate()");
+
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, KEEP_ALIVE_MS,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         Log.d(Constants.TAG, "NtpSyncRemoteService, onDestroy()");
+
+        mExecutor.shutdownNow();
     }
 
     @Override
@@ -56,32 +145,193 @@ public class NtpSyncRemoteService extends Service {
         return mBinder;
     }
 
-    private final INtpSyncRemoteService.Stub mBinder = new INtpSyncRemoteService.Stub() {
-        /**
-         * Implementation of getSystemTimeOffset
-         */
-        @Override
-        public int getSystemTimeOffset(String ntpHostname, Bundle output) throws RemoteException {
-            Log.d(Constants.TAG, "getSystemTimeOffset called!");
+    /**
+     * Executes a request of the given kind
+     * 
+     * @return one of the RETURN_* constants of INtpSyncRemoteService
+     */
+    private int execute(int kind, String ntpHostname, Bundle output) {
+        // get hostname from prefs if not defined
+        if (ntpHostname == null) {
+            ntpHostname = PreferenceHelper.getNtpServer(this);
+        }
 
-            // get hostname from prefs if not defined
-            if (ntpHostname == null) {
-                ntpHostname = PreferenceHelper.getNtpServer(NtpSyncRemoteService.this);
+        int returnMessage;
+        try {
+            switch (kind) {
+            case REQUEST_SYSTEM_TIME_OFFSET: {
+                ClockSelection.Result info = OffsetCache.get(this, ntpHostname, false);
+
+                output.putLong(INtpSyncRemoteService.KEY_OFFSET,
+                        Math.round(info.getCurrentOffsetNs() / 1000000.0));
+                output.putLong(INtpSyncRemoteService.KEY_DELAY, info.getDelayMs());
+
+                returnMessage = INtpSyncRemoteService.RETURN_OKAY;
+                break;
             }
+            case REQUEST_ELAPSED_TIME_OFFSET: {
+                ClockSelection.Result info = OffsetCache.get(this, ntpHostname, true);
 
-            int returnMessage;
-            try {
-                TimeInfo info = NtpSyncUtils.querySystemTime(ntpHostname);
+                output.putDouble(INtpSyncRemoteService.KEY_OFFSET, info.getOffsetNs());
+                output.putDouble(INtpSyncRemoteService.KEY_DELAY, info.getDelayNs());
 
-                output.putLong(INtpSyncRemoteService.KEY_OFFSET, info.getOffsetMs());
-                output.putLong(INtpSyncRemoteService.KEY_DELAY, info.getDelayMs());
+                returnMessage = INtpSyncRemoteService.RETURN_OKAY;
+                break;
+            }
+            case REQUEST_SET_TIME: {
+                SyncCoordinator.Sync sync = SyncCoordinator.sync(this, ntpHostname, true);
+
+                output.putLong(INtpSyncRemoteService.KEY_OFFSET, sync.getResult().getOffsetMs());
+                output.putLong(INtpSyncRemoteService.KEY_DELAY, sync.getResult().getDelayMs());
+
+                returnMessage = sync.getReturnCode();
+                break;
+            }
+            default:
+                returnMessage = INtpSyncRemoteService.RETURN_GENERIC_ERROR;
+                break;
+            }
+        } catch (RateLimitedException e) {
+            returnMessage = INtpSyncRemoteService.RETURN_RATE_LIMITED;
+        } catch (Exception e) {
+            returnMessage = INtpSyncRemoteService.RETURN_SERVER_TIMEOUT;
+        }
+
+        return returnMessage;
+    }
+
+    /**
+     * Queries several servers concurrently for the system time offset
+     * 
+     * @return RETURN_OKAY if at least one server replied
+     */
+    private int executeBatch(final String[] ntpHostnames, Bundle output) {
+        List<Future<ClockSelection.Result>> futures =
+                new ArrayList<Future<ClockSelection.Result>>();
+        for (String hostname : ntpHostnames) {
+            // get hostname from prefs if not defined
+            final String ntpHostname = (hostname == null) ? PreferenceHelper.getNtpServer(this)
+                    : hostname;
+            futures.add(mExecutor.submit(new Callable<ClockSelection.Result>() {
+                @Override
+                public ClockSelection.Result call() throws Exception {
+                    return OffsetCache.get(NtpSyncRemoteService.this, ntpHostname, false);
+                }
+            }));
+        }
 
+        long[] offsets = new long[ntpHostnames.length];
+        long[] delays = new long[ntpHostnames.length];
+        int[] strata = new int[ntpHostnames.length];
+        int[] returnMessages = new int[ntpHostnames.length];
+        int returnMessage = INtpSyncRemoteService.RETURN_SERVER_TIMEOUT;
+        for (int i = 0; i < ntpHostnames.length; i++) {
+            try {
+                ClockSelection.Result info = futures.get(i).get();
+                offsets[i] = Math.round(info.getCurrentOffsetNs() / 1000000.0);
+                delays[i] = info.getDelayMs();
+                strata[i] = info.getSystemPeer().getMessage().getStratum();
+                returnMessages[i] = INtpSyncRemoteService.RETURN_OKAY;
                 returnMessage = INtpSyncRemoteService.RETURN_OKAY;
-            } catch (Exception e) {
-                returnMessage = INtpSyncRemoteService.RETURN_SERVER_TIMEOUT;
+            } catch (InterruptedException e) {
+                // the service is shutting down, the remaining queries are not waited for
+                for (Future<ClockSelection.Result> future : futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return INtpSyncRemoteService.RETURN_GENERIC_ERROR;
+            } catch (ExecutionException e) {
+                Log.d(Constants.TAG, "Query of " + ntpHostnames[i] + " failed: " + e.getCause());
+                returnMessages[i] = (e.getCause() instanceof RateLimitedException)
+                        ? INtpSyncRemoteService.RETURN_RATE_LIMITED
+                        : INtpSyncRemoteService.RETURN_SERVER_TIMEOUT;
+            }
+        }
+
+        output.putLongArray(INtpSyncRemoteService.KEY_OFFSET, offsets);
+        output.putLongArray(INtpSyncRemoteService.KEY_DELAY, delays);
+        output.putIntArray(INtpSyncRemoteService.KEY_STRATUM, strata);
+        output.putIntArray(INtpSyncRemoteService.KEY_RETURN, returnMessages);
+        return returnMessage;
+    }
+
+    /**
+     * Queues an asynchronous request or attaches it to a running one of the same kind and
+     * hostname
+     */
+    private void enqueue(int kind, int requestId, String ntpHostname,
+            INtpSyncRemoteCallback callback) {
+        if (ntpHostname == null) {
+            ntpHostname = PreferenceHelper.getNtpServer(this);
+        }
+        String key = kind + "/" + ntpHostname;
+
+        synchronized (mPending) {
+            PendingRequest pending = mPending.get(key);
+            if (pending == null) {
+                pending = new PendingRequest(key, kind, ntpHostname);
+                mPending.put(key, pending);
+                pending.mFuture = mExecutor.submit(pending);
+            } else {
+                Log.d(Constants.TAG, "Request " + requestId + " joins running request " + key);
+            }
+            pending.mWaiters.add(new Waiter(requestId, callback));
+        }
+    }
+
+    /**
+     * Removes an asynchronous request and drops its query if no other request waits for it and it
+     * has not started yet. A running query is not interrupted: synchronous callers, batches and
+     * syncs may wait for the same query through {@link OffsetCache} and {@link SyncCoordinator},
+     * interrupting it would fail all of them.
+     */
+    private void cancel(int requestId, INtpSyncRemoteCallback callback) {
+        Waiter cancelled = null;
+        synchronized (mPending) {
+            for (Iterator<PendingRequest> it = mPending.values().iterator(); it.hasNext()
+                    && cancelled == null;) {
+                PendingRequest pending = it.next();
+                for (Iterator<Waiter> waiters = pending.mWaiters.iterator(); waiters.hasNext();) {
+                    Waiter waiter = waiters.next();
+                    if (waiter.mRequestId == requestId
+                            && waiter.mCallback.asBinder() == callback.asBinder()) {
+                        waiters.remove();
+                        cancelled = waiter;
+                        break;
+                    }
+                }
+
+                // a clock that is being set is not left half done
+                if (cancelled != null && pending.mWaiters.isEmpty()
+                        && pending.mKind != REQUEST_SET_TIME) {
+                    it.remove();
+                    pending.mFuture.cancel(false);
+                }
             }
+        }
+
+        if (cancelled != null) {
+            deliver(cancelled, INtpSyncRemoteService.RETURN_CANCELLED, new Bundle());
+        }
+    }
+
+    private void deliver(Waiter waiter, int returnMessage, Bundle output) {
+        try {
+            waiter.mCallback.onResult(waiter.mRequestId, returnMessage, output);
+        } catch (RemoteException e) {
+            Log.e(Constants.TAG, "Client of request " + waiter.mRequestId + " is gone!", e);
+        }
+    }
+
+    private final INtpSyncRemoteService.Stub mBinder = new INtpSyncRemoteService.Stub() {
+        /**
+         * Implementation of getSystemTimeOffset
+         */
+        @Override
+        public int getSystemTimeOffset(String ntpHostname, Bundle output) throws RemoteException {
+            Log.d(Constants.TAG, "getSystemTimeOffset called!");
 
-            return returnMessage;
+            return execute(REQUEST_SYSTEM_TIME_OFFSET, ntpHostname, output);
         }
 
         /**
@@ -91,24 +341,22 @@ public class NtpSyncRemoteService extends Service {
         public int getElapsedTimeOffset(String ntpHostname, Bundle output) throws RemoteException {
             Log.d(Constants.TAG, "getElapsedTimeOffset called!");
 
-            // get hostname from prefs if not defined
-            if (ntpHostname == null) {
-                ntpHostname = PreferenceHelper.getNtpServer(NtpSyncRemoteService.this);
-            }
-
-            int returnMessage;
-            try {
-                TimeInfo info = NtpSyncUtils.queryElapsedRealTime(ntpHostname);
+            return execute(REQUEST_ELAPSED_TIME_OFFSET, ntpHostname, output);
+        }
 
-                output.putDouble(INtpSyncRemoteService.KEY_OFFSET, info.getOffsetNs());
-                output.putDouble(INtpSyncRemoteService.KEY_DELAY, info.getDelayNs());
+        /**
+         * Implementation of getSystemTimeOffsets
+         */
+        @Override
+        public int getSystemTimeOffsets(String[] ntpHostnames, Bundle output)
+                throws RemoteException {
+            Log.d(Constants.TAG, "getSystemTimeOffsets called!");
 
-                returnMessage = INtpSyncRemoteService.RETURN_OKAY;
-            } catch (Exception e) {
-                returnMessage = INtpSyncRemoteService.RETURN_SERVER_TIMEOUT;
+            if (ntpHostnames == null || ntpHostnames.length == 0
+                    || ntpHostnames.length > MAX_BATCH) {
+                return INtpSyncRemoteService.RETURN_GENERIC_ERROR;
             }
-
-            return returnMessage;
+            return executeBatch(ntpHostnames, output);
         }
 
         /**
@@ -118,25 +366,93 @@ public class NtpSyncRemoteService extends Service {
         public int setTime(String ntpHostname, Bundle output) throws RemoteException {
             Log.d(Constants.TAG, "setTime called!");
 
-            // get hostname from prefs if not defined
-            if (ntpHostname == null) {
-                ntpHostname = PreferenceHelper.getNtpServer(NtpSyncRemoteService.this);
-            }
+            return execute(REQUEST_SET_TIME, ntpHostname, output);
+        }
+
+        /**
+         * Implementation of getTrueTimeMemory
+         */
+        @Override
+        public ParcelFileDescriptor getTrueTimeMemory() throws RemoteException {
+            Log.d(Constants.TAG, "getTrueTimeMemory called!");
 
-            int returnMessage;
             try {
-                TimeInfo info = NtpSyncUtils.querySystemTime(ntpHostname);
-                long offset = info.getOffsetMs();
+                return TrueTimePublisher.open(NtpSyncRemoteService.this);
+            } catch (IOException e) {
+                Log.e(Constants.TAG, "Opening shared memory failed!", e);
+                return null;
+            }
+        }
 
-                output.putLong(INtpSyncRemoteService.KEY_OFFSET, offset);
-                output.putLong(INtpSyncRemoteService.KEY_DELAY, info.getDelayMs());
+        /**
+         * Implementation of getSyncHistory
+         */
+        @Override
+        public int getSyncHistory(long fromMs, long toMs, Bundle output)
+                throws RemoteException {
+            Log.d(Constants.TAG, "getSyncHistory called!");
 
-                returnMessage = Utils.setTime(offset);
-            } catch (Exception e) {
-                returnMessage = INtpSyncRemoteService.RETURN_SERVER_TIMEOUT;
+            List<SyncHistory.Record> records = SyncHistory.getRecords(
+                    NtpSyncRemoteService.this, fromMs, toMs);
+            long[] times = new long[records.size()];
+            long[] offsets = new long[records.size()];
+            long[] delays = new long[records.size()];
+            int[] strata = new int[records.size()];
+            for (int i = 0; i < records.size(); i++) {
+                SyncHistory.Record record = records.get(i);
+                times[i] = record.getTimeMs();
+                offsets[i] = record.getOffsetNs();
+                delays[i] = record.getDelayNs();
+                strata[i] = record.getStratum();
             }
+            output.putLongArray(INtpSyncRemoteService.KEY_TIME, times);
+            output.putLongArray(INtpSyncRemoteService.KEY_OFFSET, offsets);
+            output.putLongArray(INtpSyncRemoteService.KEY_DELAY, delays);
+            output.putIntArray(INtpSyncRemoteService.KEY_STRATUM, strata);
+            return INtpSyncRemoteService.RETURN_OKAY;
+        }
+
+        /**
+         * Implementation of getSystemTimeOffsetAsync
+         */
+        @Override
+        public void getSystemTimeOffsetAsync(int requestId, String ntpHostname,
+                INtpSyncRemoteCallback callback) throws RemoteException {
+            Log.d(Constants.TAG, "getSystemTimeOffsetAsync called!");
+
+            enqueue(REQUEST_SYSTEM_TIME_OFFSET, requestId, ntpHostname, callback);
+        }
+
+        /**
+         * Implementation of getElapsedTimeOffsetAsync
+         */
+        @Override
+        public void getElapsedTimeOffsetAsync(int requestId, String ntpHostname,
+                INtpSyncRemoteCallback callback) throws RemoteException {
+            Log.d(Constants.TAG, "getElapsedTimeOffsetAsync called!");
+
+            enqueue(REQUEST_ELAPSED_TIME_OFFSET, requestId, ntpHostname, callback);
+        }
+
+        /**
+         * Implementation of setTimeAsync
+         */
+        @Override
+        public void setTimeAsync(int requestId, String ntpHostname,
+                INtpSyncRemoteCallback callback) throws RemoteException {
+            Log.d(Constants.TAG, "setTimeAsync called!");
+
+            enqueue(REQUEST_SET_TIME, requestId, ntpHostname, callback);
+        }
+
+        /**
+         * Implementation of cancel
+         */
+        @Override
+        public void cancel(int requestId, INtpSyncRemoteCallback callback) throws RemoteException {
+            Log.d(Constants.TAG, "cancel called!");
 
-            return returnMessage;
+            NtpSyncRemoteService.this.cancel(requestId, callback);
         }
     };
 
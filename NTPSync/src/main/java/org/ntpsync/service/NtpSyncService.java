@@ -30,27 +30,29 @@ import org.ntpsync.util.Constants;
 import org.ntpsync.util.Log;
 import org.ntpsync.util.NtpSyncUtils;
 import org.ntpsync.util.PreferenceHelper;
-import org.ntpsync.util.Utils;
+import org.ntpsync.util.RateLimitedException;
 
-import android.app.IntentService;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
-import android.os.PowerManager;
-import android.os.PowerManager.WakeLock;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.widget.Toast;
 
-public class NtpSyncService extends IntentService {
+public class NtpSyncService extends Service {
 
     // extras that can be given by intent
     public static final String EXTRA_MESSENGER = "messenger";
     public static final String EXTRA_ACTION = "action";
     public static final String EXTRA_DATA = "data";
+    /** set for syncs started in the background, see {@link #startBackgroundSync(Context)} */
+    public static final String EXTRA_BACKGROUND = "background";
 
     // possible actions in this service
     public static final int ACTION_QUERY = 1;
@@ -65,45 +67,101 @@ public class NtpSyncService extends IntentService {
     public static final int RETURN_OKAY = 1;
     public static final int RETURN_SERVER_TIMEOUT = 2;
     public static final int RETURN_NO_ROOT = 3;
+    public static final int RETURN_RATE_LIMITED = 5;
 
     // returned message data
     public static final String MESSAGE_DATA_TIME = "time";
     public static final String MESSAGE_DATA_DETAILED_OUTPUT = "detailed_output";
 
-    Messenger mMessenger;
-    Bundle mData;
+    /** deadlines of the jobs, beyond the longest query with failover */
+    private static final long INTERACTIVE_TIMEOUT_MS = 60 * 1000L;
+    private static final long BACKGROUND_TIMEOUT_MS = 2 * 60 * 1000L;
 
-    // private static WifiLock wifiLock;
-    private static WakeLock wakeLock;
+    /** the device is kept awake this long until the service submitted a background sync */
+    private static final long START_TIMEOUT_MS = 10 * 1000L;
 
-    public NtpSyncService() {
-        super("NtpService");
+    /** key of background syncs, a background sync is not queued twice */
+    private static final String JOB_KEY_SYNC = "sync";
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** jobs of this service not finished yet, only accessed on the main thread */
+    private int mJobs;
+    private int mLastStartId;
+
+    /**
+     * Starts a sync in the background that sets the clock, for alarms, boot and connectivity
+     * changes. The device is kept awake until the sync is done.
+     * 
+     * @param context
+     */
+    public static void startBackgroundSync(Context context) {
+        Intent intent = new Intent(context, NtpSyncService.class);
+        intent.putExtra(EXTRA_ACTION, ACTION_QUERY);
+        intent.putExtra(EXTRA_BACKGROUND, true);
+
+        Bundle data = new Bundle();
+        data.putBoolean(DATA_GET_NTP_SERVER_FROM_PREFS, true);
+        data.putBoolean(DATA_APPLY_DIRECTLY, true);
+        intent.putExtra(EXTRA_DATA, data);
+
+        JobEngine.holdWakeLock(context, START_TIMEOUT_MS);
+        context.startService(intent);
     }
 
-    private static void lock() {
-        try {
-            wakeLock.acquire();
-        } catch (Exception e) {
-            Log.e(Constants.TAG, "Error getting Lock!", e);
-        }
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
     }
 
-    private static void unlock() {
-        if (wakeLock.isHeld())
-            wakeLock.release();
+    /**
+     * Hands the intent to the {@link JobEngine}, so requests from the UI do not wait behind a
+     * sync in the background. The service stops when all its jobs are finished.
+     */
+    @Override
+    public int onStartCommand(final Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+
+        boolean background = (intent != null) && intent.getBooleanExtra(EXTRA_BACKGROUND, false);
+        JobEngine.Job job = new JobEngine.Job(background ? JobEngine.PRIORITY_BACKGROUND
+                : JobEngine.PRIORITY_INTERACTIVE, background ? BACKGROUND_TIMEOUT_MS
+                : INTERACTIVE_TIMEOUT_MS, background ? JOB_KEY_SYNC : null) {
+            @Override
+            protected void execute() {
+                handleIntent(intent);
+            }
+
+            @Override
+            protected void onFinished() {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mJobs--;
+                        stopIfIdle();
+                    }
+                });
+            }
+        };
+
+        if (JobEngine.submit(this, job)) {
+            mJobs++;
+        } else {
+            stopIfIdle();
+        }
+        return START_NOT_STICKY;
     }
 
-    private static void getLocks(Context context) {
-        // initialise the lock
-        wakeLock = ((PowerManager) context.getSystemService(Context.POWER_SERVICE)).newWakeLock(
-                PowerManager.PARTIAL_WAKE_LOCK, "NtpSyncWakeLock");
+    private void stopIfIdle() {
+        if (mJobs == 0) {
+            stopSelf(mLastStartId);
+        }
     }
 
-    @Override
-    protected void onHandleIntent(Intent intent) {
-        // lock cpu
-        getLocks(this);
-        lock();
+    private void handleIntent(Intent intent) {
+        if (intent == null) {
+            Log.e(Constants.TAG, "Intent is null!");
+            return;
+        }
 
         Bundle extras = intent.getExtras();
         if (extras == null) {
@@ -121,19 +179,21 @@ public class NtpSyncService extends IntentService {
 
         // for these actions we get a result back which is send via the messenger and we require
         // a data bundle
+        Bundle data;
         if (!(extras.containsKey(EXTRA_DATA))) {
             Log.e(Constants.TAG, "Extra bundle must contain a data bundle!");
             return;
         } else {
-            mData = extras.getBundle(EXTRA_DATA);
+            data = extras.getBundle(EXTRA_DATA);
         }
 
+        Messenger messenger = null;
         boolean noMessenger = false;
         if (!(extras.containsKey(EXTRA_MESSENGER))) {
             Log.e(Constants.TAG, "No messenger present, using default result handling!");
             noMessenger = true;
         } else {
-            mMessenger = (Messenger) extras.get(EXTRA_MESSENGER);
+            messenger = (Messenger) extras.get(EXTRA_MESSENGER);
         }
 
         // get NTP server from preferences
@@ -141,7 +201,6 @@ public class NtpSyncService extends IntentService {
 
         // default values
         int returnMessage = RETURN_GENERIC_ERROR;
-        long offset = 0;
 
         // execute action from extra bundle
         switch (action) {
@@ -150,20 +209,20 @@ public class NtpSyncService extends IntentService {
             // return time to ui
             Bundle messageData = new Bundle();
             try {
-                offset = NtpSyncUtils.querySystemTime(ntpHostname).getOffsetMs();
-
-                returnMessage = RETURN_OKAY;
+                boolean applyDirectly = data.containsKey(DATA_APPLY_DIRECTLY)
+                        && data.getBoolean(DATA_APPLY_DIRECTLY);
+                SyncCoordinator.Sync sync = SyncCoordinator.sync(this, ntpHostname,
+                        applyDirectly);
+                returnMessage = sync.getReturnCode();
 
-                // calculate new time
-                Date newTime = new Date(System.currentTimeMillis() + offset);
+                // calculate new time, the result may be of a sync that already set the clock
+                Date newTime = new Date(sync.getResult().getTrueTimeNs(
+                        SystemClock.elapsedRealtimeNanos()) / 1000000L);
 
                 messageData.putSerializable(MESSAGE_DATA_TIME, newTime);
-
-                if (mData.containsKey(DATA_APPLY_DIRECTLY)) {
-                    if (mData.getBoolean(DATA_APPLY_DIRECTLY)) {
-                        returnMessage = Utils.setTime(offset);
-                    }
-                }
+            } catch (RateLimitedException e) {
+                returnMessage = RETURN_RATE_LIMITED;
+                Log.d(Constants.TAG, "Servers were asked too often!");
             } catch (IOException e) {
                 returnMessage = RETURN_SERVER_TIMEOUT;
                 Log.d(Constants.TAG, "Timeout on server!");
@@ -175,7 +234,7 @@ public class NtpSyncService extends IntentService {
                 msg.setData(messageData);
                 handleResult(msg);
             } else {
-                sendMessageToHandler(returnMessage, messageData);
+                sendMessageToHandler(messenger, returnMessage, messageData);
             }
 
             break;
@@ -185,15 +244,19 @@ public class NtpSyncService extends IntentService {
             String output = null;
             Bundle messageDataDetailedQuery = null;
             try {
-                TimeInfo info = NtpSyncUtils.query(ntpHostname, false);
+                TimeInfo info = NtpSyncUtils.query(this, ntpHostname, false);
 
-                output = NtpSyncUtils.processResponse(info, this);
+                output = NtpSyncUtils.processResponse(info, this,
+                        PreferenceHelper.getResolveReference(this));
 
                 // return detailed output to ui
                 messageDataDetailedQuery = new Bundle();
                 messageDataDetailedQuery.putSerializable(MESSAGE_DATA_DETAILED_OUTPUT, output);
 
                 returnMessage = RETURN_OKAY;
+            } catch (RateLimitedException e) {
+                returnMessage = RETURN_RATE_LIMITED;
+                Log.d(Constants.TAG, "Servers were asked too often!");
             } catch (IOException e) {
                 returnMessage = RETURN_SERVER_TIMEOUT;
                 Log.d(Constants.TAG, "Timeout on server!");
@@ -205,7 +268,7 @@ public class NtpSyncService extends IntentService {
                 msg.setData(messageDataDetailedQuery);
                 handleResult(msg);
             } else {
-                sendMessageToHandler(returnMessage, messageDataDetailedQuery);
+                sendMessageToHandler(messenger, returnMessage, messageDataDetailedQuery);
             }
 
             break;
@@ -214,9 +277,6 @@ public class NtpSyncService extends IntentService {
             break;
 
         }
-
-        // unlock cpu
-        unlock();
     }
 
     private void handleResult(final Message message) {
@@ -269,6 +329,15 @@ public class NtpSyncService extends IntentService {
 
                     break;
 
+                case NtpSyncService.RETURN_RATE_LIMITED:
+                    Toast.makeText(
+                            getApplicationContext(),
+                            getString(R.string.app_name) + ": "
+                                    + getString(R.string.return_rate_limited), Toast.LENGTH_LONG)
+                            .show();
+
+                    break;
+
                 default:
                     break;
                 }
@@ -276,7 +345,8 @@ public class NtpSyncService extends IntentService {
         });
     }
 
-    private void sendMessageToHandler(Integer arg1, Integer arg2, Bundle messageData) {
+    private void sendMessageToHandler(Messenger messenger, Integer arg1, Integer arg2,
+            Bundle messageData) {
         Message msg = Message.obtain();
         msg.arg1 = arg1;
         if (arg2 != null) {
@@ -287,7 +357,7 @@ public class NtpSyncService extends IntentService {
         }
 
         try {
-            mMessenger.send(msg);
+            messenger.send(msg);
         } catch (RemoteException e) {
             Log.w(Constants.TAG, "Exception sending message, Is handler present?", e);
         } catch (NullPointerException e) {
@@ -295,8 +365,8 @@ public class NtpSyncService extends IntentService {
         }
     }
 
-    private void sendMessageToHandler(Integer arg1, Bundle messageData) {
-        sendMessageToHandler(arg1, null, messageData);
+    private void sendMessageToHandler(Messenger messenger, Integer arg1, Bundle messageData) {
+        sendMessageToHandler(messenger, arg1, null, messageData);
     }
 
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ntpsync.util.ClockSelection;
+import org.ntpsync.util.Constants;
+import org.ntpsync.util.DriftEstimator;
+import org.ntpsync.util.Log;
+import org.ntpsync.util.NtpSyncUtils;
+import org.ntpsync.util.OffsetCache;
+import org.ntpsync.util.PollScheduler;
+import org.ntpsync.util.PreferenceHelper;
+import org.ntpsync.util.SyncHistory;
+import org.ntpsync.util.TrueTimePublisher;
+import org.ntpsync.util.Utils;
+
+import com.commonsware.cwac.wakeful.WakefulIntentService;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+/**
+ * Runs all syncs of the system time, whether started at boot, by the network returning, by the
+ * alarm, from the UI or by a client app. Only one sync per server list runs at a time: a sync
+ * requested while another one is in flight waits for it and gets its result, unless it has to
+ * set the clock and the one in flight does not. A sync requested shortly after another one
+ * finished gets that result too, so a burst of triggers (boot and connectivity at once) costs a
+ * single query and root shell.
+ */
+public class SyncCoordinator {
+    /** syncs of the same servers are at least this far apart */
+    static final long MIN_SPACING_MS = 30 * 1000L;
+
+    /**
+     * Held while the clock is measured or set: syncs that only query share it, syncs that set
+     * the clock and drift corrections hold it alone, so none measures while another one adjusts.
+     * It is fair, a stream of queries does not starve an adjustment.
+     */
+    static final ReadWriteLock clockLock = new ReentrantReadWriteLock(true);
+
+    /**
+     * Outcome of one sync
+     */
+    public static class Sync {
+        private final ClockSelection.Result mResult;
+        private final int mReturnCode;
+        private final boolean mApply;
+        /** elapsed real time the sync finished at */
+        private final long mFinishedMs;
+
+        Sync(ClockSelection.Result result, int returnCode, boolean apply) {
+            mResult = result;
+            mReturnCode = returnCode;
+            mApply = apply;
+            mFinishedMs = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * @return selection of the query
+         */
+        public ClockSelection.Result getResult() {
+            return mResult;
+        }
+
+        /**
+         * @return one of the RETURN_* constants of NtpSyncService
+         */
+        public int getReturnCode() {
+            return mReturnCode;
+        }
+    }
+
+    /**
+     * Sync in flight and last sync of one server list
+     */
+    private static class Entry {
+        /** true while a sync runs */
+        boolean mRunning;
+        /** true if the running sync sets the clock */
+        boolean mRunningApply;
+        /** incremented whenever a sync ends */
+        long mGeneration;
+        /** last successful sync */
+        Sync mLast;
+        /** failure of the last sync */
+        IOException mError;
+        /** callers using the entry, guarded by entries */
+        int mUsers;
+
+        /**
+         * @return true if no sync runs and the last one is too old to be given out again
+         */
+        synchronized boolean isIdle(long nowMs) {
+            return !mRunning && (mLast == null || nowMs - mLast.mFinishedMs >= MIN_SPACING_MS);
+        }
+    }
+
+    private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Gets the entry of a server list, to be released by {@link #releaseEntry(Entry)}
+     */
+    private static Entry getEntry(String ntpHostname) {
+        synchronized (entries) {
+            // client apps may pass any hostname, only recent syncs are kept
+            long now = SystemClock.elapsedRealtime();
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.mUsers == 0 && entry.isIdle(now)) {
+                    iterator.remove();
+                }
+            }
+
+            Entry entry = entries.get(ntpHostname);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(ntpHostname, entry);
+            }
+            entry.mUsers++;
+            return entry;
+        }
+    }
+
+    private static void releaseEntry(Entry entry) {
+        synchronized (entries) {
+            entry.mUsers--;
+        }
+    }
+
+    /**
+     * Syncs with the given servers, or joins the sync in flight
+     *
+     * @param context
+     * @param ntpHostname
+     *            one or more hostnames, see {@link NtpSyncUtils#parseServers(String)}
+     * @param apply
+     *            if true, the clock is set to the result
+     * @return outcome of the sync
+     * @throws IOException
+     *             if the query failed, also thrown to all callers waiting for that query
+     */
+    public static Sync sync(Context context, String ntpHostname, boolean apply)
+            throws IOException {
+        Entry entry = getEntry(ntpHostname);
+        try {
+            return sync(context, ntpHostname, apply, entry);
+        } finally {
+            releaseEntry(entry);
+        }
+    }
+
+    private static Sync sync(Context context, String ntpHostname, boolean apply, Entry entry)
+            throws IOException {
+        synchronized (entry) {
+            try {
+                while (entry.mRunning) {
+                    long generation = entry.mGeneration;
+                    boolean joined = entry.mRunningApply || !apply;
+                    while (entry.mGeneration == generation) {
+                        entry.wait();
+                    }
+                    if (joined) {
+                        Log.d(Constants.TAG, "Joined sync in flight of " + ntpHostname);
+                        if (entry.mError != null) {
+                            throw entry.mError;
+                        }
+                        return entry.mLast;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Waiting for sync interrupted!");
+            }
+
+            Sync last = entry.mLast;
+            if (last != null && (last.mApply || !apply)
+                    && SystemClock.elapsedRealtime() - last.mFinishedMs < MIN_SPACING_MS) {
+                Log.d(Constants.TAG, "Last sync of " + ntpHostname + " is recent, using it");
+                return last;
+            }
+            entry.mRunning = true;
+            entry.mRunningApply = apply;
+        }
+
+        Sync sync = null;
+        IOException error = null;
+        Lock lock = apply ? clockLock.writeLock() : clockLock.readLock();
+        try {
+            lock.lockInterruptibly();
+            try {
+                sync = execute(context, ntpHostname, apply);
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException("Waiting for clock adjustment interrupted!");
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            if (sync == null && error == null) {
+                error = new IOException("Sync failed!");
+            }
+            synchronized (entry) {
+                entry.mRunning = false;
+                entry.mGeneration++;
+                entry.mError = error;
+                if (sync != null) {
+                    entry.mLast = sync;
+                }
+                entry.notifyAll();
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+        return sync;
+    }
+
+    /**
+     * @return true if the servers are the ones set in the preferences
+     */
+    private static boolean isConfigured(Context context, String ntpHostname) {
+        return Arrays.equals(NtpSyncUtils.parseServers(ntpHostname),
+                NtpSyncUtils.parseServers(PreferenceHelper.getNtpServer(context)));
+    }
+
+    private static Sync execute(Context context, String ntpHostname, boolean apply)
+            throws IOException {
+        ClockSelection.Result result = NtpSyncUtils.querySystemTime(context, ntpHostname);
+        // client apps may ask any server, only the configured ones measure the local clock
+        boolean configured = isConfigured(context, ntpHostname);
+        if (configured) {
+            DriftEstimator.addSample(context, result.getOffsetNs());
+            // every client reads the shared true time, it must not follow a server one chose
+            TrueTimePublisher.publish(context, result);
+        }
+        OffsetCache.put(context, ntpHostname, false, result);
+
+        int returnCode = NtpSyncService.RETURN_OKAY;
+        boolean applied = false;
+        if (apply) {
+            // the offset is the error accumulated since the last adjustment
+            PollScheduler.update(context, result);
+
+            // an offset within the jitter of the servers is not significant
+            if (Math.abs(result.getOffsetNs()) > result.getJitterNs()) {
+                returnCode = Utils.setTime(context, result);
+                applied = (returnCode == NtpSyncService.RETURN_OKAY);
+            } else {
+                Log.d(Constants.TAG, "Offset " + result.getOffsetNs()
+                        + " ns is within jitter, clock is not changed!");
+            }
+
+            // the system time is synced now, serve it as such
+            if (returnCode == NtpSyncService.RETURN_OKAY) {
+                NtpServerService.updateReference(result);
+            }
+            DriftCorrectionService.schedule(context);
+
+            // the next sync is due after the adapted interval
+            if (PreferenceHelper.getSyncDaily(context)) {
+                WakefulIntentService.scheduleAlarms(new DailyListener(), context, true);
+            }
+        }
+        if (configured) {
+            SyncHistory.append(context, result, applied);
+        }
+
+        return new Sync(result, returnCode, apply);
+    }
+}
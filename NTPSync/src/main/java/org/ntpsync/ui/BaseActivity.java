@@ -29,6 +29,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Messenger;
 import android.preference.Preference;
+import android.preference.Preference.OnPreferenceChangeListener;
 import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 import android.text.Html;
@@ -40,6 +41,8 @@ import com.commonsware.cwac.wakeful.WakefulIntentService;
 
 import org.ntpsync.R;
 import org.ntpsync.service.DailyListener;
+import org.ntpsync.service.DriftCorrectionService;
+import org.ntpsync.service.NtpServerService;
 import org.ntpsync.service.NtpSyncService;
 import org.ntpsync.util.Constants;
 import org.ntpsync.util.PreferenceHelper;
@@ -56,6 +59,9 @@ public class BaseActivity extends PreferenceActivity {
     private Preference mQueryAndSet;
 
     private Preference mSyncDailyPref;
+    private Preference mDriftCorrectionPref;
+    private Preference mNtpServerModePref;
+    private Preference mNtpServerPortPref;
 
     private Preference mHelp;
 
@@ -103,6 +109,9 @@ public class BaseActivity extends PreferenceActivity {
         mDetailedQuery = findPreference(getString(R.string.pref_detailed_query_key));
         mQueryAndSet = findPreference(getString(R.string.pref_query_and_set_key));
         mSyncDailyPref = findPreference(getString(R.string.pref_sync_daily_key));
+        mDriftCorrectionPref = findPreference(getString(R.string.pref_drift_correction_key));
+        mNtpServerModePref = findPreference(getString(R.string.pref_ntp_server_mode_key));
+        mNtpServerPortPref = findPreference(getString(R.string.pref_ntp_server_port_key));
         mHelp = findPreference(getString(R.string.pref_help_key));
 
         mQuery.setOnPreferenceClickListener(new OnPreferenceClickListener() {
@@ -151,6 +160,13 @@ public class BaseActivity extends PreferenceActivity {
 
                                 break;
 
+                            case NtpSyncService.RETURN_RATE_LIMITED:
+                                toast = Toast.makeText(mActivity,
+                                        getString(R.string.return_rate_limited), Toast.LENGTH_LONG);
+                                toast.show();
+
+                                break;
+
                             default:
                                 break;
                         }
@@ -221,6 +237,13 @@ public class BaseActivity extends PreferenceActivity {
 
                                 break;
 
+                            case NtpSyncService.RETURN_RATE_LIMITED:
+                                toast = Toast.makeText(mActivity,
+                                        getString(R.string.return_rate_limited), Toast.LENGTH_LONG);
+                                toast.show();
+
+                                break;
+
                             case NtpSyncService.RETURN_NO_ROOT:
                                 Utils.showRootDialog(mActivity);
 
@@ -302,6 +325,13 @@ public class BaseActivity extends PreferenceActivity {
 
                                 break;
 
+                            case NtpSyncService.RETURN_RATE_LIMITED:
+                                toast = Toast.makeText(mActivity,
+                                        getString(R.string.return_rate_limited), Toast.LENGTH_LONG);
+                                toast.show();
+
+                                break;
+
                             default:
                                 break;
                         }
@@ -346,6 +376,46 @@ public class BaseActivity extends PreferenceActivity {
 
         });
 
+        // schedule or cancel the drift correction, for the same reason as above on click
+        mDriftCorrectionPref.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                DriftCorrectionService.schedule(mActivity);
+
+                return false;
+            }
+
+        });
+
+        // start or stop the NTP server, for the same reason as above on click
+        mNtpServerModePref.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                NtpServerService.startOrStop(mActivity);
+
+                return false;
+            }
+
+        });
+
+        /*
+         * Restart the NTP server on a new port. The new value is saved before the service is
+         * started again, as starting it is asynchronous.
+         */
+        mNtpServerPortPref.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                stopService(new Intent(mActivity, NtpServerService.class));
+                NtpServerService.startOrStop(mActivity);
+
+                return true;
+            }
+
+        });
+
         mHelp.setOnPreferenceClickListener(new OnPreferenceClickListener() {
 
             @Override
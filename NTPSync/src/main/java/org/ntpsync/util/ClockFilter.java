@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.net.ntp.NtpUtils;
+import org.apache.commons.net.ntp.TimeInfo;
+
+/**
+ * Clock filter algorithm of RFC 5905 (section 10 and appendix A.5.2) for one server. Keeps the
+ * last 8 samples in a shift register and selects the one with the lowest roundtrip delay, which
+ * is the one least disturbed by queueing on the path. The spread of the other samples gives the
+ * peer jitter.
+ */
+public class ClockFilter {
+    /** number of stages of the shift register (NSTAGE) */
+    static final int STAGES = 8;
+
+    /** frequency tolerance the dispersion of a sample grows with (PHI, 15 ppm) */
+    static final double FREQUENCY_TOLERANCE = 15e-6;
+
+    /**
+     * samples older than the default maximum poll interval of the reference implementation (2^10
+     * s) are discarded, the offset of older ones says little about the clock as syncs are rare
+     */
+    static final long MAX_AGE_MS = (1L << 10) * 1000L;
+
+    /**
+     * One stage of the shift register
+     */
+    private static class Sample {
+        final TimeInfo mInfo;
+        final long mOffset;
+        final long mDelay;
+        /** dispersion when the sample was taken */
+        final long mDispersion;
+        /** elapsed real time when the sample was taken */
+        final long mTimeMs;
+
+        Sample(TimeInfo info, long offset, long delay, long dispersion, long timeMs) {
+            mInfo = info;
+            mOffset = offset;
+            mDelay = delay;
+            mDispersion = dispersion;
+            mTimeMs = timeMs;
+        }
+
+        long dispersionAt(long nowMs) {
+            return mDispersion + Math.round((nowMs - mTimeMs) * 1000000L * FREQUENCY_TOLERANCE);
+        }
+    }
+
+    private static final long MAX_DISTANCE_NS = ClockSelection.MAX_DISTANCE_NS;
+
+    private final Sample[] mRegister = new Sample[STAGES];
+
+    private Sample mBest;
+    private long mJitterNs;
+    private long mDispersionNs;
+
+    /**
+     * Shifts a new sample into the register and selects the minimum-delay sample again.
+     *
+     * @param info
+     *            reply with details already computed, ignored if it has no offset or is a
+     *            kiss-o'-death packet
+     * @param nowMs
+     *            elapsed real time when the reply was received
+     * @return true if the reply was added
+     */
+    public synchronized boolean add(TimeInfo info, long nowMs) {
+        if (!info.hasOffset() || !info.hasDelay()) {
+            return false;
+        }
+        // ntpd copies the request's timestamps into it, its delay would make it the best sample
+        if (NtpUtils.getKissCode(info.getMessage()) != null) {
+            return false;
+        }
+        // the initial dispersion is the precision of both clocks
+        long dispersionNs = ClockSelection.precisionToNanos(info.getMessage().getPrecision())
+                + ClockSelection.LOCAL_PRECISION_NS;
+        System.arraycopy(mRegister, 0, mRegister, 1, STAGES - 1);
+        mRegister[0] = new Sample(info, info.getOffsetNsValue(),
+                Math.max(info.getDelayNsValue(), 0), dispersionNs, nowMs);
+
+        update(nowMs);
+        return true;
+    }
+
+    /**
+     * Sorts the valid stages by delay, picks the first and computes peer dispersion and jitter
+     */
+    private void update(final long nowMs) {
+        Sample[] sorted = new Sample[STAGES];
+        int n = 0;
+        for (Sample sample : mRegister) {
+            if (sample != null && nowMs - sample.mTimeMs <= MAX_AGE_MS) {
+                sorted[n++] = sample;
+            }
+        }
+        Arrays.sort(sorted, 0, n, new Comparator<Sample>() {
+            @Override
+            public int compare(Sample lhs, Sample rhs) {
+                // samples too far away to be usable go last, like in the reference implementation
+                boolean lhsFar = lhs.mDelay / 2 + lhs.dispersionAt(nowMs) > MAX_DISTANCE_NS;
+                boolean rhsFar = rhs.mDelay / 2 + rhs.dispersionAt(nowMs) > MAX_DISTANCE_NS;
+                if (lhsFar != rhsFar) {
+                    return lhsFar ? 1 : -1;
+                }
+                return (lhs.mDelay < rhs.mDelay) ? -1 : ((lhs.mDelay == rhs.mDelay) ? 0 : 1);
+            }
+        });
+
+        if (n == 0) {
+            mBest = null;
+            return;
+        }
+        mBest = sorted[0];
+
+        // epsilon = sum(epsilon_i / 2^(i+1)); unlike the reference implementation empty stages
+        // do not count as MAXDISP, a single burst has to be usable right away
+        double dispersion = 0;
+        double jitter = 0;
+        for (int i = 0; i < n; i++) {
+            dispersion += sorted[i].dispersionAt(nowMs) / (double) (2L << i);
+            double d = sorted[i].mOffset - mBest.mOffset;
+            jitter += d * d;
+        }
+        mDispersionNs = Math.round(dispersion);
+        mJitterNs = (n > 1) ? Math.round(Math.sqrt(jitter / (n - 1))) : 0;
+    }
+
+    /**
+     * Discards all samples, they are meaningless after the clock has been set
+     */
+    public synchronized void clear() {
+        Arrays.fill(mRegister, null);
+        mBest = null;
+        mJitterNs = 0;
+        mDispersionNs = 0;
+    }
+
+    /**
+     * @param nowMs
+     *            elapsed real time
+     * @return true if the register holds no sample younger than MAX_AGE_MS, the filter can be
+     *         dropped
+     */
+    public synchronized boolean isExpired(long nowMs) {
+        for (Sample sample : mRegister) {
+            if (sample != null && nowMs - sample.mTimeMs <= MAX_AGE_MS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the minimum-delay sample or null if the register holds no usable sample
+     */
+    public synchronized TimeInfo getBest() {
+        return (mBest == null) ? null : mBest.mInfo;
+    }
+
+    /**
+     * @return offset of the minimum-delay sample in nanoseconds
+     */
+    public synchronized long getOffsetNs() {
+        return mBest.mOffset;
+    }
+
+    /**
+     * @return delay of the minimum-delay sample in nanoseconds
+     */
+    public synchronized long getDelayNs() {
+        return mBest.mDelay;
+    }
+
+    /**
+     * @return peer dispersion in nanoseconds as of the last sample
+     */
+    public synchronized long getDispersionNs() {
+        return mDispersionNs;
+    }
+
+    /**
+     * @return peer jitter (RMS of the offset differences to the minimum-delay sample) in
+     *         nanoseconds
+     */
+    public synchronized long getJitterNs() {
+        return mJitterNs;
+    }
+}
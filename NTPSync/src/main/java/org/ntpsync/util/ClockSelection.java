@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.apache.commons.net.ntp.TimeInfo;
+
+import android.os.SystemClock;
+
+/**
+ * Clock selection, cluster and combine algorithms of RFC 5905 (section 11.2 and appendix A.5.5).
+ * Takes the clock filters of several NTP servers and computes a single system offset from the
+ * servers agreeing on the time, together with its jitter and error bound.
+ */
+public class ClockSelection {
+    private static final long NS_PER_SEC = 1000000000L;
+
+    /** maximum root distance of a usable server (MAXDIST, 1.5 s) */
+    static final long MAX_DISTANCE_NS = 1500000000L;
+
+    /** minimum number of survivors the cluster algorithm keeps (NMIN) */
+    static final int MIN_SURVIVORS = 3;
+
+    /** maximum stratum of a usable server (MAXSTRAT) */
+    static final int MAX_STRATUM = 16;
+
+    /** precision of System.currentTimeMillis() used to timestamp the packets */
+    static final long LOCAL_PRECISION_NS = 1000000L;
+
+    /**
+     * Result of the selection: the combined offset of all survivors
+     */
+    public static class Result {
+        private final long mOffsetNs;
+        private final long mJitterNs;
+        private final long mErrorBoundNs;
+        private final int mSurvivors;
+        private final TimeInfo mSystemPeer;
+        /** elapsed real time the offset was determined at */
+        private final long mElapsedRealtimeNs;
+        /** system time at mElapsedRealtimeNs */
+        private final long mSystemTimeNs;
+
+        Result(long offsetNs, long jitterNs, long errorBoundNs, int survivors, TimeInfo systemPeer) {
+            mOffsetNs = offsetNs;
+            mJitterNs = jitterNs;
+            mErrorBoundNs = errorBoundNs;
+            mSurvivors = survivors;
+            mSystemPeer = systemPeer;
+
+            mElapsedRealtimeNs = SystemClock.elapsedRealtimeNanos();
+            // the system time is truncated to milliseconds, on average it is half a millisecond on
+            mSystemTimeNs = System.currentTimeMillis() * 1000000L + 500000L;
+        }
+
+        /**
+         * @return combined clock offset in nanoseconds
+         */
+        public long getOffsetNs() {
+            return mOffsetNs;
+        }
+
+        /**
+         * @return combined clock offset in milliseconds
+         */
+        public long getOffsetMs() {
+            return Math.round(mOffsetNs / 1000000.0);
+        }
+
+        /**
+         * @return roundtrip delay to the system peer in nanoseconds
+         */
+        public long getDelayNs() {
+            return mSystemPeer.getDelayNsValue();
+        }
+
+        /**
+         * @return roundtrip delay to the system peer in milliseconds
+         */
+        public long getDelayMs() {
+            return mSystemPeer.getDelayMs();
+        }
+
+        /**
+         * @return system jitter (RMS of the survivor offsets and the peer jitter of the system peer)
+         *         in nanoseconds
+         */
+        public long getJitterNs() {
+            return mJitterNs;
+        }
+
+        /**
+         * @return root synchronization distance of the system peer in nanoseconds, the maximum
+         *         error of the offset
+         */
+        public long getErrorBoundNs() {
+            return mErrorBoundNs;
+        }
+
+        /**
+         * @return number of servers that contributed to the offset
+         */
+        public int getSurvivors() {
+            return mSurvivors;
+        }
+
+        /**
+         * True time at a given elapsed real time, derived from the system time and the offset at
+         * the time of the selection. Unlike adding the offset to the system time later, this is
+         * not affected by the time passed meanwhile nor by changes of the system time. Only
+         * meaningful for results of system time queries.
+         * 
+         * @param elapsedRealtimeNs
+         *            elapsed real time in nanoseconds
+         * @return true time in nanoseconds since 1970
+         */
+        public long getTrueTimeNs(long elapsedRealtimeNs) {
+            return mSystemTimeNs + mOffsetNs + (elapsedRealtimeNs - mElapsedRealtimeNs);
+        }
+
+        /**
+         * Offset of the system time now, derived like {@link #getTrueTimeNs(long)}. Follows
+         * changes of the system time since the selection, so results can be kept.
+         * 
+         * @return offset of the system time in nanoseconds
+         */
+        public long getCurrentOffsetNs() {
+            long elapsedRealtimeNs = SystemClock.elapsedRealtimeNanos();
+            // the system time is truncated to milliseconds, on average it is half a millisecond on
+            return getTrueTimeNs(elapsedRealtimeNs) - System.currentTimeMillis() * 1000000L
+                    - 500000L;
+        }
+
+        /**
+         * @return elapsed real time the offset was determined at in nanoseconds
+         */
+        public long getElapsedRealtimeNs() {
+            return mElapsedRealtimeNs;
+        }
+
+        /**
+         * @return reply of the server with the lowest root distance among the survivors
+         */
+        public TimeInfo getSystemPeer() {
+            return mSystemPeer;
+        }
+    }
+
+    /**
+     * Candidate built from the clock filter of one server
+     */
+    private static class Candidate {
+        final TimeInfo mInfo;
+        final long mOffset;
+        final long mDistance;
+        final long mJitter;
+
+        Candidate(TimeInfo info, long offset, long distance, long jitter) {
+            mInfo = info;
+            mOffset = offset;
+            mDistance = distance;
+            mJitter = jitter;
+        }
+    }
+
+    /**
+     * Endpoint of a correctness interval
+     */
+    private static class Endpoint {
+        final long mEdge;
+        /** +1 lower endpoint, 0 midpoint, -1 upper endpoint */
+        final int mType;
+
+        Endpoint(long edge, int type) {
+            mEdge = edge;
+            mType = type;
+        }
+    }
+
+    /**
+     * Selects the servers agreeing on the time and combines their offsets.
+     *
+     * @param filters
+     *            clock filters of the servers, one per server
+     * @return combined result or null if no majority of the servers agrees on the time
+     */
+    public static Result select(Collection<ClockFilter> filters) {
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (ClockFilter filter : filters) {
+            Candidate candidate = toCandidate(filter);
+            if (candidate != null) {
+                candidates.add(candidate);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        List<Candidate> survivors = intersect(candidates);
+        if (survivors == null) {
+            return null;
+        }
+
+        // order by merit, the first survivor becomes the system peer
+        Collections.sort(survivors, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate lhs, Candidate rhs) {
+                long l = lhs.mInfo.getMessage().getStratum() * MAX_DISTANCE_NS + lhs.mDistance;
+                long r = rhs.mInfo.getMessage().getStratum() * MAX_DISTANCE_NS + rhs.mDistance;
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+        });
+
+        cluster(survivors);
+
+        return combine(survivors);
+    }
+
+    /**
+     * Checks if the minimum-delay sample of the server is usable at all (RFC 5905 fit test) and
+     * computes its root distance
+     *
+     * @param filter
+     * @return candidate or null if the server is not usable
+     */
+    private static Candidate toCandidate(ClockFilter filter) {
+        // read the filter at once, another query may add samples meanwhile
+        TimeInfo info;
+        long offset;
+        long delay;
+        long dispersion;
+        long jitter;
+        synchronized (filter) {
+            info = filter.getBest();
+            if (info == null) {
+                return null;
+            }
+            offset = filter.getOffsetNs();
+            delay = filter.getDelayNs();
+            dispersion = filter.getDispersionNs();
+            jitter = Math.max(filter.getJitterNs(), LOCAL_PRECISION_NS);
+        }
+
+        NtpV3Packet message = info.getMessage();
+        // stratum 0 is a kiss-o'-death packet
+        int stratum = message.getStratum();
+        if (stratum == 0 || stratum >= MAX_STRATUM) {
+            return null;
+        }
+        if (message.getLeapIndicator() == NtpV3Packet.LI_ALARM_CONDITION) {
+            return null;
+        }
+
+        long rootDelay = fixedToNanos(message.getRootDelay());
+        long rootDispersion = fixedToNanos(message.getRootDispersion() & 0xffffffffL);
+
+        // root distance: lambda = (Delta + delta) / 2 + E + epsilon + psi
+        long distance = (rootDelay + delay) / 2 + rootDispersion + dispersion + jitter;
+        if (distance > MAX_DISTANCE_NS) {
+            return null;
+        }
+
+        return new Candidate(info, offset, distance, jitter);
+    }
+
+    /**
+     * Intersection algorithm: finds the smallest interval containing points from the
+     * correctness intervals [offset - distance, offset + distance] of a majority of servers.
+     * Servers whose offset lies outside of it are falsetickers.
+     *
+     * @param candidates
+     * @return truechimers or null if there is no majority
+     */
+    private static List<Candidate> intersect(List<Candidate> candidates) {
+        int m = candidates.size();
+
+        List<Endpoint> endpoints = new ArrayList<Endpoint>(3 * m);
+        for (Candidate c : candidates) {
+            endpoints.add(new Endpoint(c.mOffset - c.mDistance, +1));
+            endpoints.add(new Endpoint(c.mOffset, 0));
+            endpoints.add(new Endpoint(c.mOffset + c.mDistance, -1));
+        }
+        Collections.sort(endpoints, new Comparator<Endpoint>() {
+            @Override
+            public int compare(Endpoint lhs, Endpoint rhs) {
+                if (lhs.mEdge != rhs.mEdge) {
+                    return (lhs.mEdge < rhs.mEdge) ? -1 : 1;
+                }
+                // open intervals before closing them on equal edges
+                return rhs.mType - lhs.mType;
+            }
+        });
+
+        long low = 0;
+        long high = 0;
+        boolean majority = false;
+        for (int allow = 0; 2 * allow < m; allow++) {
+            int found = 0;
+
+            int chime = 0;
+            for (int i = 0; i < endpoints.size(); i++) {
+                Endpoint e = endpoints.get(i);
+                chime += e.mType;
+                if (chime >= m - allow) {
+                    low = e.mEdge;
+                    break;
+                }
+                if (e.mType == 0) {
+                    found++;
+                }
+            }
+
+            chime = 0;
+            for (int i = endpoints.size() - 1; i >= 0; i--) {
+                Endpoint e = endpoints.get(i);
+                chime -= e.mType;
+                if (chime >= m - allow) {
+                    high = e.mEdge;
+                    break;
+                }
+                if (e.mType == 0) {
+                    found++;
+                }
+            }
+
+            // too many midpoints outside the interval, allow one more falseticker
+            if (found > allow) {
+                continue;
+            }
+            if (high >= low) {
+                majority = true;
+                break;
+            }
+        }
+
+        if (!majority) {
+            Log.w(Constants.TAG, "No majority of NTP servers agrees on the time!");
+            return null;
+        }
+
+        List<Candidate> truechimers = new ArrayList<Candidate>();
+        for (Candidate c : candidates) {
+            if (c.mOffset >= low && c.mOffset <= high) {
+                truechimers.add(c);
+            } else {
+                Log.d(Constants.TAG, "Falseticker: " + c.mInfo.getAddress());
+            }
+        }
+        return truechimers.isEmpty() ? null : truechimers;
+    }
+
+    /**
+     * Cluster algorithm: repeatedly discards the survivor contributing the most selection
+     * jitter, until that jitter is below the smallest peer jitter or only few survivors remain.
+     *
+     * @param survivors
+     *            sorted by merit, pruned in place
+     */
+    private static void cluster(List<Candidate> survivors) {
+        while (survivors.size() > MIN_SURVIVORS) {
+            double maxSelectionJitter = -1;
+            int maxIndex = -1;
+            long minPeerJitter = Long.MAX_VALUE;
+
+            for (int i = 0; i < survivors.size(); i++) {
+                Candidate ci = survivors.get(i);
+                double sum = 0;
+                for (Candidate cj : survivors) {
+                    double d = cj.mOffset - ci.mOffset;
+                    sum += d * d;
+                }
+                double selectionJitter = Math.sqrt(sum / (survivors.size() - 1));
+                if (selectionJitter > maxSelectionJitter) {
+                    maxSelectionJitter = selectionJitter;
+                    maxIndex = i;
+                }
+                minPeerJitter = Math.min(minPeerJitter, ci.mJitter);
+            }
+
+            if (maxSelectionJitter < minPeerJitter) {
+                break;
+            }
+            Candidate removed = survivors.remove(maxIndex);
+            Log.d(Constants.TAG, "Pruned by cluster algorithm: " + removed.mInfo.getAddress());
+        }
+    }
+
+    /**
+     * Combine algorithm: averages the survivor offsets weighted by the reciprocal of their root
+     * distance.
+     *
+     * @param survivors
+     *            sorted by merit
+     * @return result
+     */
+    private static Result combine(List<Candidate> survivors) {
+        Candidate systemPeer = survivors.get(0);
+
+        // work relative to the system peer to keep precision with huge elapsed time offsets
+        double weights = 0;
+        double offset = 0;
+        double jitter = 0;
+        for (Candidate c : survivors) {
+            double weight = 1.0 / Math.max(c.mDistance, 1);
+            double d = c.mOffset - systemPeer.mOffset;
+            weights += weight;
+            offset += weight * d;
+            jitter += weight * d * d;
+        }
+        offset /= weights;
+        double selectionJitter = Math.sqrt(jitter / weights);
+        double systemJitter = Math.sqrt(selectionJitter * selectionJitter
+                + (double) systemPeer.mJitter * systemPeer.mJitter);
+
+        return new Result(systemPeer.mOffset + Math.round(offset), Math.round(systemJitter),
+                systemPeer.mDistance, survivors.size(), systemPeer.mInfo);
+    }
+
+    /**
+     * Converts NTP short format (16.16 fixed-point seconds) to nanoseconds
+     */
+    private static long fixedToNanos(long value) {
+        return (value * NS_PER_SEC) >> 16;
+    }
+
+    /**
+     * Converts precision (log2 seconds) to nanoseconds
+     */
+    static long precisionToNanos(int precision) {
+        return Math.round(Math.pow(2, precision) * NS_PER_SEC);
+    }
+}
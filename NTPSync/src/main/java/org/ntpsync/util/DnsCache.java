@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.SystemClock;
+
+/**
+ * Process-wide cache of the addresses of NTP servers. The platform caches lookups for a few
+ * seconds only, so every sync would wait for DNS, which is often the slowest part on cellular
+ * networks. The record TTLs are not available through InetAddress, so fixed lifetimes are used
+ * instead: successful lookups are kept for an hour and refreshed in the background when three
+ * quarters of that have passed, failed lookups are remembered for a minute. If a lookup fails
+ * while the old addresses have expired they are used further for up to a day.
+ */
+public class DnsCache {
+    /** lifetime of a successful lookup */
+    static final long TTL_MS = 60 * 60 * 1000L;
+
+    /** lifetime of a failed lookup */
+    static final long NEGATIVE_TTL_MS = 60 * 1000L;
+
+    /** expired addresses are used if the lookup fails, up to this age */
+    static final long MAX_STALE_MS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Result of the last lookup of one hostname
+     */
+    private static class Entry {
+        InetAddress[] mAddresses;
+        /** elapsed real time of the last successful lookup */
+        long mResolvedMs;
+        UnknownHostException mError;
+        /** elapsed real time of the last failed lookup */
+        long mFailedMs;
+        boolean mRefreshing;
+    }
+
+    private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /** runs the background lookups one after another */
+    private static final ExecutorService executor = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DnsCache");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static Entry getEntry(String hostname) {
+        synchronized (entries) {
+            Entry entry = entries.get(hostname);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(hostname, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Returns all addresses of a hostname (A and AAAA records), from the cache if possible
+     *
+     * @param hostname
+     * @return addresses
+     * @throws UnknownHostException
+     *             if the hostname could not be resolved now or within the last minute
+     */
+    public static InetAddress[] resolve(String hostname) throws UnknownHostException {
+        Entry entry = getEntry(hostname);
+        long now = SystemClock.elapsedRealtime();
+
+        synchronized (entry) {
+            if (entry.mError != null && now - entry.mFailedMs < NEGATIVE_TTL_MS) {
+                if (entry.mAddresses != null && now - entry.mResolvedMs < MAX_STALE_MS) {
+                    return entry.mAddresses;
+                }
+                throw entry.mError;
+            }
+            if (entry.mAddresses != null && now - entry.mResolvedMs < TTL_MS) {
+                if (now - entry.mResolvedMs >= TTL_MS * 3 / 4) {
+                    refreshInBackground(hostname);
+                }
+                return entry.mAddresses;
+            }
+        }
+
+        return lookup(hostname, entry);
+    }
+
+    /**
+     * Resolves hostnames in the background so that a following query does not wait for DNS
+     *
+     * @param hostnames
+     */
+    public static void preResolve(String[] hostnames) {
+        long now = SystemClock.elapsedRealtime();
+        for (String hostname : hostnames) {
+            Entry entry = getEntry(hostname);
+            synchronized (entry) {
+                if (entry.mAddresses != null && now - entry.mResolvedMs < TTL_MS * 3 / 4) {
+                    continue;
+                }
+            }
+            refreshInBackground(hostname);
+        }
+    }
+
+    private static void refreshInBackground(final String hostname) {
+        final Entry entry = getEntry(hostname);
+        synchronized (entry) {
+            if (entry.mRefreshing) {
+                return;
+            }
+            entry.mRefreshing = true;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lookup(hostname, entry);
+                } catch (UnknownHostException e) {
+                    // remembered in the entry
+                } finally {
+                    synchronized (entry) {
+                        entry.mRefreshing = false;
+                    }
+                }
+            }
+        });
+    }
+
+    private static InetAddress[] lookup(String hostname, Entry entry)
+            throws UnknownHostException {
+        try {
+            InetAddress[] addresses = InetAddress.getAllByName(hostname);
+            synchronized (entry) {
+                entry.mAddresses = addresses;
+                entry.mResolvedMs = SystemClock.elapsedRealtime();
+                entry.mError = null;
+            }
+            return addresses;
+        } catch (UnknownHostException e) {
+            long now = SystemClock.elapsedRealtime();
+            synchronized (entry) {
+                entry.mError = e;
+                entry.mFailedMs = now;
+                if (entry.mAddresses != null && now - entry.mResolvedMs < MAX_STALE_MS) {
+                    Log.d(Constants.TAG, "Using expired addresses of " + hostname);
+                    return entry.mAddresses;
+                }
+            }
+            throw e;
+        }
+    }
+}
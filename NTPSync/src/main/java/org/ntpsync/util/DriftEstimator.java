@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Estimates the frequency error of the local oscillator from the offsets measured over time and
+ * predicts the offset accumulated since the clock was last adjusted.
+ * 
+ * Every measured offset is stored together with the sum of all adjustments made to the clock so
+ * far. Their sum is the phase of the local clock against true time, which grows linearly with the
+ * frequency error. The slope is estimated with the Theil-Sen estimator, the median of the slopes
+ * between all pairs of samples, so single bad measurements do not disturb it. Samples are
+ * persisted, the estimate survives restarts and improves with every sync.
+ */
+public class DriftEstimator {
+    private static final String PREFS_NAME = "drift";
+    private static final String KEY_SAMPLES = "samples";
+    private static final String KEY_CORRECTION_NS = "correctionNs";
+    private static final String KEY_LAST_ADJUSTMENT_MS = "lastAdjustmentMs";
+
+    private static final long NS_PER_MS = 1000000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    /** number of samples kept */
+    static final int MAX_SAMPLES = 16;
+
+    /** samples older than this say little about the current frequency, which depends on aging */
+    static final long MAX_AGE_MS = 30 * 24 * HOUR_MS;
+
+    /** pairs of samples closer than this are dominated by the measurement error */
+    static final long MIN_PAIR_SPAN_MS = HOUR_MS;
+
+    /** samples have to span this to give a usable estimate */
+    static final long MIN_SPAN_MS = 6 * HOUR_MS;
+
+    /** maximum frequency error of a sane oscillator (MAXFREQ of RFC 5905, 500 ppm) */
+    static final double MAX_FREQUENCY_PPM = 500;
+
+    /**
+     * Measured phase of the local clock
+     */
+    private static class Sample {
+        final long mTimeMs;
+        final long mPhaseNs;
+
+        Sample(long timeMs, long phaseNs) {
+            mTimeMs = timeMs;
+            mPhaseNs = phaseNs;
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records an offset measured against NTP servers
+     * 
+     * @param context
+     * @param offsetNs
+     *            offset of the system time in nanoseconds, positive if the local clock is behind
+     */
+    public static void addSample(Context context, long offsetNs) {
+        addSample(context, offsetNs, System.currentTimeMillis());
+    }
+
+    static synchronized void addSample(Context context, long offsetNs, long now) {
+        SharedPreferences prefs = getPrefs(context);
+        List<Sample> samples = load(prefs, now);
+        samples.add(new Sample(now, prefs.getLong(KEY_CORRECTION_NS, 0) + offsetNs));
+        while (samples.size() > MAX_SAMPLES) {
+            samples.remove(0);
+        }
+
+        StringBuilder value = new StringBuilder();
+        for (Sample sample : samples) {
+            if (value.length() > 0) {
+                value.append(';');
+            }
+            value.append(sample.mTimeMs).append(',').append(sample.mPhaseNs);
+        }
+        prefs.edit().putString(KEY_SAMPLES, value.toString()).commit();
+    }
+
+    /**
+     * Records an adjustment of the system time, network or predicted
+     * 
+     * @param context
+     * @param offsetMs
+     *            offset the clock has been adjusted by in milliseconds
+     */
+    public static synchronized void onClockAdjusted(Context context, long offsetMs) {
+        SharedPreferences prefs = getPrefs(context);
+        prefs.edit()
+                .putLong(KEY_CORRECTION_NS,
+                        prefs.getLong(KEY_CORRECTION_NS, 0) + offsetMs * NS_PER_MS)
+                .putLong(KEY_LAST_ADJUSTMENT_MS, System.currentTimeMillis()).commit();
+    }
+
+    /**
+     * @param context
+     * @return system time the clock was last adjusted at in milliseconds, 0 if never
+     */
+    public static synchronized long getLastAdjustmentMs(Context context) {
+        return getPrefs(context).getLong(KEY_LAST_ADJUSTMENT_MS, 0);
+    }
+
+    /**
+     * @param context
+     * @return frequency error of the local clock in ppm, positive if it is slow, or NaN if the
+     *         samples do not allow an estimate yet
+     */
+    public static double getFrequencyPpm(Context context) {
+        return getFrequencyPpm(context, System.currentTimeMillis());
+    }
+
+    static synchronized double getFrequencyPpm(Context context, long now) {
+        List<Sample> samples = load(getPrefs(context), now);
+        if (samples.size() < 3
+                || samples.get(samples.size() - 1).mTimeMs - samples.get(0).mTimeMs < MIN_SPAN_MS) {
+            return Double.NaN;
+        }
+
+        // nanoseconds per millisecond are ppm
+        List<Double> slopes = new ArrayList<Double>();
+        for (int i = 0; i < samples.size(); i++) {
+            for (int j = i + 1; j < samples.size(); j++) {
+                long span = samples.get(j).mTimeMs - samples.get(i).mTimeMs;
+                if (span >= MIN_PAIR_SPAN_MS) {
+                    slopes.add((samples.get(j).mPhaseNs - samples.get(i).mPhaseNs)
+                            / (double) span);
+                }
+            }
+        }
+        if (slopes.isEmpty()) {
+            return Double.NaN;
+        }
+
+        Collections.sort(slopes);
+        int n = slopes.size();
+        double median = (n % 2 == 1) ? slopes.get(n / 2)
+                : (slopes.get(n / 2 - 1) + slopes.get(n / 2)) / 2;
+        if (Math.abs(median) > MAX_FREQUENCY_PPM) {
+            Log.w(Constants.TAG, "Frequency error of " + median + " ppm is implausible!");
+            return Double.NaN;
+        }
+        return median;
+    }
+
+    /**
+     * @param context
+     * @return offset accumulated since the clock was last adjusted in nanoseconds, 0 if the
+     *         frequency error is not known
+     */
+    public static synchronized long getPredictedOffsetNs(Context context) {
+        double ppm = getFrequencyPpm(context);
+        long lastAdjustment = getLastAdjustmentMs(context);
+        if (Double.isNaN(ppm) || lastAdjustment == 0) {
+            return 0;
+        }
+        long elapsed = Math.max(System.currentTimeMillis() - lastAdjustment, 0);
+        return Math.round(ppm * elapsed);
+    }
+
+    /**
+     * Discards all samples, e.g. when the device moved to another oscillator or the samples are
+     * known to be bad
+     * 
+     * @param context
+     */
+    public static synchronized void clear(Context context) {
+        getPrefs(context).edit().clear().commit();
+    }
+
+    /**
+     * Loads the samples that are not too old, oldest first
+     */
+    private static List<Sample> load(SharedPreferences prefs, long now) {
+        List<Sample> samples = new ArrayList<Sample>();
+        String value = prefs.getString(KEY_SAMPLES, "");
+        if (value.length() == 0) {
+            return samples;
+        }
+        for (String entry : value.split(";")) {
+            String[] fields = entry.split(",");
+            try {
+                Sample sample = new Sample(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+                if (now - sample.mTimeMs <= MAX_AGE_MS) {
+                    samples.add(sample);
+                }
+            } catch (RuntimeException e) {
+                Log.e(Constants.TAG, "Invalid drift sample " + entry, e);
+            }
+        }
+        return samples;
+    }
+}
@@ -20,17 +20,30 @@ package org.ntpsync.util;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.net.DatagramChannelSocketFactory;
 import org.apache.commons.net.ntp.NTPUDPClient;
 import org.apache.commons.net.ntp.NtpUtils;
 import org.apache.commons.net.ntp.NtpV3Packet;
 import org.apache.commons.net.ntp.TimeInfo;
 import org.apache.commons.net.ntp.TimeStamp;
 import org.ntpsync.R;
+import org.ntpsync.service.JobEngine;
 
 import android.content.Context;
+import android.os.SystemClock;
 
 /***
  * This is based on the example program demonstrating how to use the NTPUDPClient class. This
@@ -47,13 +60,32 @@ import android.content.Context;
 public class NtpSyncUtils {
     private static final NumberFormat numberFormat = new java.text.DecimalFormat("0.00");
 
+    /** number of requests sent to every server per query */
+    private static final int BURST_PACKETS = 4;
+
+    /** milliseconds between two requests to the same server */
+    private static final int BURST_SPACING = 300;
+
+    /** servers queried at once, the others are kept for failover */
+    private static final int MAX_SERVERS = 8;
+
+    /** clock filters of the servers queried recently, by address */
+    private static final Map<InetAddress, ClockFilter> systemTimeFilters =
+            new HashMap<InetAddress, ClockFilter>();
+    private static final Map<InetAddress, ClockFilter> elapsedTimeFilters =
+            new HashMap<InetAddress, ClockFilter>();
+
     /**
      * Process <code>TimeInfo</code> object and print its details.
      * 
      * @param info
      *            <code>TimeInfo</code> object.
+     * @param resolveReference
+     *            if true, look up the hostname of the reference of stratum 2+ servers, this is a
+     *            reverse DNS lookup that can take seconds
      */
-    public static String processResponse(TimeInfo info, Context context) {
+    public static String processResponse(TimeInfo info, Context context,
+            boolean resolveReference) {
         String output = "";
 
         NtpV3Packet message = info.getMessage();
@@ -96,7 +128,7 @@ public class NtpSyncUtils {
         if (refId != 0) {
             if (refAddr.equals("127.127.1.0")) {
                 refName = "LOCAL"; // This is the ref address for the Local Clock
-            } else if (stratum >= 2) {
+            } else if (stratum >= 2 && resolveReference) {
                 // If reference id has 127.127 prefix then it uses its own reference clock
                 // defined in the form 127.127.clock-type.unit-num (e.g. 127.127.8.0 mode 5
                 // for GENERIC DCF77 AM; see refclock.htm from the NTP software distribution.
@@ -167,66 +199,319 @@ public class NtpSyncUtils {
     }
 
     /**
-     * Queries NTP server to get details
+     * Splits a user supplied server setting into single hostnames. Servers can be separated by
+     * commas or whitespace, e.g. "0.pool.ntp.org, 1.pool.ntp.org"
      * 
-     * @param ntpServerHostname
+     * @param ntpServers
+     * @return hostnames, empty if none were given
+     */
+    public static String[] parseServers(String ntpServers) {
+        String trimmed = (ntpServers == null) ? "" : ntpServers.trim();
+        if (trimmed.length() == 0) {
+            return new String[0];
+        }
+        return trimmed.split("[,\\s]+");
+    }
+
+    /**
+     * Resolves all hostnames to every address they have (A and AAAA records), so that a pool name
+     * counts as several servers. Duplicates are removed and unresolvable hostnames are skipped.
+     * Lookups are cached, see {@link DnsCache}.
+     * 
+     * @param ntpServerHostnames
+     * @return addresses
+     * @throws UnknownHostException
+     *             if not a single hostname could be resolved
+     */
+    public static InetAddress[] resolveServers(String[] ntpServerHostnames)
+            throws UnknownHostException {
+        Set<InetAddress> addresses = new LinkedHashSet<InetAddress>();
+        UnknownHostException lastException = null;
+        for (String hostname : ntpServerHostnames) {
+            try {
+                for (InetAddress addr : DnsCache.resolve(hostname)) {
+                    addresses.add(addr);
+                }
+            } catch (UnknownHostException e) {
+                Log.d(Constants.TAG, "Could not resolve " + hostname, e);
+                lastException = e;
+            }
+        }
+
+        if (addresses.isEmpty()) {
+            throw (lastException != null) ? lastException : new UnknownHostException(
+                    "No NTP server given!");
+        }
+        return addresses.toArray(new InetAddress[addresses.size()]);
+    }
+
+    /**
+     * Queries the NTP servers concurrently over one socket and returns as soon as a majority of
+     * them has answered. A single slow or dead server thus no longer delays the whole query. Every
+     * server gets a burst of requests, see {@link NTPUDPClient#getTimes(InetAddress[], int,
+     * boolean, int, int, int)}.
+     * 
+     * The servers are taken in the order of {@link ServerScoreboard}, servers skipped after
+     * failures are only queried if too few of the others answer, within the same query.
+     * 
+     * @param context
+     * @param ntpServerHostnames
      * @param elapsedTime: if true, calculate details for elapsed real time
      *                     if false, calculate details for system time
-     * @return Result as TimeInfo
+     * @return Results of all requests as TimeInfo with details already computed, in order of
+     *         arrival
+     * @throws RateLimitedException
+     *             if no server could be asked because all were asked too often recently
+     */
+    public static List<TimeInfo> queryServers(Context context, String[] ntpServerHostnames,
+            boolean elapsedTime) throws IOException, SocketException {
+        List<InetAddress> ordered = ServerScoreboard.order(context,
+                resolveServers(ntpServerHostnames));
+
+        int usable = 0;
+        while (usable < ordered.size() && usable < MAX_SERVERS
+                && ServerScoreboard.isUsable(context, ordered.get(usable))) {
+            usable++;
+        }
+        if (usable == 0) {
+            // all servers are being skipped, try them anyway
+            usable = Math.min(ordered.size(), MAX_SERVERS);
+        }
+
+        List<InetAddress> first = ordered.subList(0, usable);
+        List<TimeInfo> infos = new ArrayList<TimeInfo>();
+        boolean rateLimited = false;
+        try {
+            infos.addAll(queryAddresses(context, first, elapsedTime));
+        } catch (RateLimitedException e) {
+            rateLimited = true;
+        }
+        if (countServers(infos) < first.size() / 2 + 1 && usable < ordered.size()) {
+            List<InetAddress> spare = ordered.subList(usable,
+                    Math.min(ordered.size(), usable + MAX_SERVERS));
+            Log.d(Constants.TAG, "Too few servers answered, failing over to " + spare.size()
+                    + " more");
+            try {
+                infos.addAll(queryAddresses(context, spare, elapsedTime));
+                rateLimited = false;
+            } catch (RateLimitedException e) {
+                // asked too often as well, the outcome of the first servers stands
+            }
+        }
+
+        if (countServers(infos) == 0) {
+            if (rateLimited || isRateLimited(infos)) {
+                throw new RateLimitedException("All servers were asked too often recently");
+            }
+            if (infos.isEmpty()) {
+                throw new SocketTimeoutException("No server answered");
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * Queries one set of servers, paced by {@link RequestPacer}, and records the outcome in the
+     * {@link ServerScoreboard}
+     * 
+     * @return replies with details computed, empty if no server answered
+     * @throws RateLimitedException
+     *             if the pacing allows no request to any of the servers
      */
-    public static TimeInfo query(String ntpServerHostname, boolean elapsedTime) throws IOException,
-            SocketException {
-        NTPUDPClient client = new NTPUDPClient();
-        // We want to timeout if a response takes longer than 10 seconds
-        client.setDefaultTimeout(10000);
+    private static List<TimeInfo> queryAddresses(Context context, List<InetAddress> servers,
+            boolean elapsedTime) throws IOException, SocketException {
+        // servers that were asked too often recently are left out or get fewer requests
+        int[] allowed = RequestPacer.acquire(servers, BURST_PACKETS);
+        List<InetAddress> hostAddrs = new ArrayList<InetAddress>();
+        int[] bursts = new int[allowed.length];
+        for (int i = 0; i < allowed.length; i++) {
+            if (allowed[i] > 0) {
+                bursts[hostAddrs.size()] = allowed[i];
+                hostAddrs.add(servers.get(i));
+            }
+        }
+        if (hostAddrs.isEmpty()) {
+            throw new RateLimitedException("No request to " + servers.size()
+                    + " servers allowed now");
+        }
+
+        final NTPUDPClient client = new NTPUDPClient();
+        // wait for the replies with a selector instead of a blocking receive
+        client.setDatagramSocketFactory(new DatagramChannelSocketFactory());
+        // timeout if a response takes much longer than the servers usually need, 10 s at most
+        client.setDefaultTimeout(ServerScoreboard.getTimeoutMs(context, hostAddrs));
 
-        TimeInfo info = null;
+        // a cancelled job aborts the exchange, interrupting it would close the channel
+        JobEngine.setCancelHandler(new Runnable() {
+            @Override
+            public void run() {
+                client.cancel();
+            }
+        });
+
+        List<TimeInfo> infos;
         try {
             client.open();
 
-            InetAddress hostAddr = InetAddress.getByName(ntpServerHostname);
-            Log.d(Constants.TAG, "> " + hostAddr.getHostName() + "/" + hostAddr.getHostAddress());
-            info = client.getTime(hostAddr, elapsedTime);
+            for (InetAddress hostAddr : hostAddrs) {
+                Log.d(Constants.TAG, "> " + hostAddr.getHostAddress());
+            }
+            infos = client.getTimes(hostAddrs.toArray(new InetAddress[hostAddrs.size()]),
+                    NtpV3Packet.NTP_PORT, elapsedTime, hostAddrs.size() / 2 + 1,
+                    Arrays.copyOf(bursts, hostAddrs.size()), BURST_SPACING);
+        } catch (SocketTimeoutException e) {
+            infos = new ArrayList<TimeInfo>();
         } finally {
+            JobEngine.setCancelHandler(null);
             client.close();
         }
 
-        return info;
+        for (TimeInfo info : infos) {
+            info.computeDetails();
+        }
+        ServerScoreboard.update(context, hostAddrs, infos);
+        RequestPacer.update(infos);
+
+        return infos;
     }
 
     /**
-     * Queries NTP server to get details
-     *
+     * @return number of different servers among the replies, kiss-o'-death replies do not count
+     */
+    private static int countServers(List<TimeInfo> infos) {
+        Set<InetAddress> servers = new HashSet<InetAddress>();
+        for (TimeInfo info : infos) {
+            if (NtpUtils.getKissCode(info.getMessage()) == null) {
+                servers.add(info.getAddress());
+            }
+        }
+        return servers.size();
+    }
+
+    /**
+     * @return true if there are replies and all of them are RATE kiss-o'-death packets
+     */
+    private static boolean isRateLimited(List<TimeInfo> infos) {
+        for (TimeInfo info : infos) {
+            if (!NtpUtils.KISS_RATE.equals(NtpUtils.getKissCode(info.getMessage()))) {
+                return false;
+            }
+        }
+        return !infos.isEmpty();
+    }
+
+    /**
+     * Feeds the replies into the clock filter of their server
+     * 
+     * @param infos
+     * @param elapsedTime
+     * @return clock filters of the servers that replied with a usable sample
+     */
+    private static Set<ClockFilter> filter(List<TimeInfo> infos, boolean elapsedTime) {
+        Map<InetAddress, ClockFilter> filters = elapsedTime ? elapsedTimeFilters
+                : systemTimeFilters;
+        long now = SystemClock.elapsedRealtime();
+
+        Set<ClockFilter> replied = new LinkedHashSet<ClockFilter>();
+        synchronized (filters) {
+            // drop servers not heard from recently, DNS rotation of pools brings new addresses
+            Iterator<ClockFilter> iterator = filters.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isExpired(now)) {
+                    iterator.remove();
+                }
+            }
+
+            for (TimeInfo info : infos) {
+                ClockFilter filter = filters.get(info.getAddress());
+                if (filter == null) {
+                    filter = new ClockFilter();
+                    filters.put(info.getAddress(), filter);
+                }
+                if (filter.add(info, now)) {
+                    replied.add(filter);
+                }
+            }
+        }
+        return replied;
+    }
+
+    /**
+     * Discards the samples of all servers taken for the system time, to be called after the
+     * system time has been set
+     */
+    public static void clearClockFilters() {
+        synchronized (systemTimeFilters) {
+            for (ClockFilter filter : systemTimeFilters.values()) {
+                filter.clear();
+            }
+        }
+    }
+
+    /**
+     * Queries all NTP servers and combines the replies of those agreeing on the time using the
+     * RFC 5905 clock filter and selection algorithms
+     * 
+     * @param context
      * @param ntpServerHostname
-     * @return Result as TimeInfo
+     *            one or more hostnames, see {@link #parseServers(String)}
+     * @param elapsedTime: if true, calculate details for elapsed real time
+     *                     if false, calculate details for system time
+     * @return combined offset
      * @throws IOException
-     *             , SocketException
+     *             if no majority of servers returned a valid and consistent reply
      */
-    public static TimeInfo querySystemTime(String ntpServerHostname) throws IOException,
-            SocketException {
-        TimeInfo info = query(ntpServerHostname, false);
+    public static ClockSelection.Result querySelection(Context context, String ntpServerHostname,
+            boolean elapsedTime) throws IOException, SocketException {
+        ClockSelection.Result result = ClockSelection.select(filter(
+                queryServers(context, parseServers(ntpServerHostname), elapsedTime), elapsedTime));
 
-        // compute offset/delay if not already done
-        info.computeDetails();
-
-        return info;
+        if (result == null) {
+            throw new IOException("No majority of NTP servers returned a valid reply!");
+        }
+        return result;
     }
 
     /**
      * Queries NTP server to get details
-     *
+     * 
+     * @param context
      * @param ntpServerHostname
+     *            one or more hostnames, see {@link #parseServers(String)}
+     * @param elapsedTime: if true, calculate details for elapsed real time
+     *                     if false, calculate details for system time
      * @return Result as TimeInfo
+     */
+    public static TimeInfo query(Context context, String ntpServerHostname, boolean elapsedTime)
+            throws IOException, SocketException {
+        return querySelection(context, ntpServerHostname, elapsedTime).getSystemPeer();
+    }
+
+    /**
+     * Queries NTP servers to get the system time offset
+     *
+     * @param context
+     * @param ntpServerHostname
+     * @return Result as combined offset
      * @throws IOException
      *             , SocketException
      */
-    public static TimeInfo queryElapsedRealTime(String ntpServerHostname) throws IOException,
-            SocketException {
-        TimeInfo info = query(ntpServerHostname, true);
-
-        // compute offset/delay if not already done
-        info.computeDetails();
+    public static ClockSelection.Result querySystemTime(Context context, String ntpServerHostname)
+            throws IOException, SocketException {
+        return querySelection(context, ntpServerHostname, false);
+    }
 
-        return info;
+    /**
+     * Queries NTP servers to get the elapsed real time offset
+     *
+     * @param context
+     * @param ntpServerHostname
+     * @return Result as combined offset
+     * @throws IOException
+     *             , SocketException
+     */
+    public static ClockSelection.Result queryElapsedRealTime(Context context,
+            String ntpServerHostname) throws IOException, SocketException {
+        return querySelection(context, ntpServerHostname, true);
     }
 }
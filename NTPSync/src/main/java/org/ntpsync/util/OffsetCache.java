@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.ntpsync.service.SyncCoordinator;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+/**
+ * Process-wide cache of the latest selection per server list. Results are anchored on the elapsed
+ * real time (see {@link ClockSelection.Result#getTrueTimeNs(long)}), so they stay valid when the
+ * system time is changed. A result is used as long as it is younger than the maximum age and its
+ * error bound, grown with the frequency tolerance since the query, is below the maximum error.
+ * Otherwise one caller queries the servers again while concurrent callers wait for its result.
+ * Queries of the system time go through {@link SyncCoordinator}, so they are shared with syncs.
+ * Entries of results older than the maximum age are dropped, clients may pass any hostname.
+ */
+public class OffsetCache {
+    /**
+     * Latest result and refresh state for one kind of query and server list
+     */
+    private static class Entry {
+        ClockSelection.Result mResult;
+        boolean mRefreshing;
+        /** incremented whenever a refresh ends */
+        long mGeneration;
+        /** failure of the last refresh */
+        IOException mError;
+        /** callers using the entry, guarded by entries */
+        int mUsers;
+
+        /**
+         * @return true if no refresh runs and the result is too old to be used
+         */
+        synchronized boolean isIdle(long maxAgeMs) {
+            return !mRefreshing && (mResult == null || SystemClock.elapsedRealtimeNanos()
+                    - mResult.getElapsedRealtimeNs() > maxAgeMs * 1000000L);
+        }
+    }
+
+    private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Gets the entry of a server list, to be released by {@link #releaseEntry(Entry)}
+     */
+    private static Entry getEntry(Context context, String ntpServerHostname,
+            boolean elapsedTime) {
+        long maxAgeMs = PreferenceHelper.getOffsetCacheMaxAge(context) * 1000L;
+        String key = (elapsedTime ? "elapsed/" : "system/") + ntpServerHostname;
+        synchronized (entries) {
+            // drop the results too old to be used
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.mUsers == 0 && entry.isIdle(maxAgeMs)) {
+                    iterator.remove();
+                }
+            }
+
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            entry.mUsers++;
+            return entry;
+        }
+    }
+
+    private static void releaseEntry(Entry entry) {
+        synchronized (entries) {
+            entry.mUsers--;
+        }
+    }
+
+    /**
+     * @return error bound of a result now in nanoseconds
+     */
+    public static long getErrorBoundNs(ClockSelection.Result result) {
+        long ageNs = SystemClock.elapsedRealtimeNanos() - result.getElapsedRealtimeNs();
+        return result.getErrorBoundNs() + Math.round(ageNs * ClockFilter.FREQUENCY_TOLERANCE);
+    }
+
+    private static boolean isFresh(ClockSelection.Result result, long maxAgeMs, long maxErrorNs) {
+        if (result == null) {
+            return false;
+        }
+        long ageNs = SystemClock.elapsedRealtimeNanos() - result.getElapsedRealtimeNs();
+        return ageNs <= maxAgeMs * 1000000L && getErrorBoundNs(result) <= maxErrorNs;
+    }
+
+    /**
+     * Returns the cached result if it is fresh enough or queries the servers, see
+     * {@link NtpSyncUtils#querySelection(Context, String, boolean)}. Limits are taken from the preferences.
+     *
+     * @param ntpServerHostname
+     *            one or more hostnames, see {@link NtpSyncUtils#parseServers(String)}
+     * @param elapsedTime
+     *            if true, offset of the elapsed real time, else of the system time
+     * @return combined offset, for the system time use
+     *         {@link ClockSelection.Result#getCurrentOffsetNs()}
+     * @throws IOException
+     *             if the query failed, also thrown to all callers waiting for that query
+     */
+    public static ClockSelection.Result get(Context context, String ntpServerHostname,
+            boolean elapsedTime) throws IOException {
+        Entry entry = getEntry(context, ntpServerHostname, elapsedTime);
+        try {
+            return get(context, ntpServerHostname, elapsedTime, entry);
+        } finally {
+            releaseEntry(entry);
+        }
+    }
+
+    private static ClockSelection.Result get(Context context, String ntpServerHostname,
+            boolean elapsedTime, Entry entry) throws IOException {
+        long maxAgeMs = PreferenceHelper.getOffsetCacheMaxAge(context) * 1000L;
+        long maxErrorNs = PreferenceHelper.getOffsetCacheMaxError(context) * 1000000L;
+
+        synchronized (entry) {
+            if (entry.mRefreshing) {
+                // join the query in flight instead of sending another one
+                long generation = entry.mGeneration;
+                try {
+                    while (entry.mGeneration == generation) {
+                        entry.wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Waiting for NTP query interrupted!");
+                }
+                if (entry.mError != null) {
+                    throw entry.mError;
+                }
+                return entry.mResult;
+            }
+            if (isFresh(entry.mResult, maxAgeMs, maxErrorNs)) {
+                Log.d(Constants.TAG, "Using cached offset of " + ntpServerHostname);
+                return entry.mResult;
+            }
+            entry.mRefreshing = true;
+        }
+
+        ClockSelection.Result result = null;
+        IOException error = null;
+        try {
+            if (elapsedTime) {
+                result = NtpSyncUtils.querySelection(context, ntpServerHostname, true);
+            } else {
+                // shares the query with syncs of the same servers, also stores the result here
+                result = SyncCoordinator.sync(context, ntpServerHostname, false).getResult();
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            if (result == null && error == null) {
+                error = new IOException("NTP query failed!");
+            }
+            synchronized (entry) {
+                entry.mRefreshing = false;
+                entry.mGeneration++;
+                entry.mError = error;
+                if (result != null) {
+                    entry.mResult = result;
+                }
+                entry.notifyAll();
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    /**
+     * Stores the result of a query made elsewhere, for example by a sync
+     */
+    public static void put(Context context, String ntpServerHostname, boolean elapsedTime,
+            ClockSelection.Result result) {
+        Entry entry = getEntry(context, ntpServerHostname, elapsedTime);
+        synchronized (entry) {
+            entry.mResult = result;
+        }
+        releaseEntry(entry);
+    }
+}
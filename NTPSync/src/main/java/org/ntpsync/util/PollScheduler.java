@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Adapts the interval of the background sync to the stability of the local clock, like the poll
+ * process of RFC 5905 adapts the poll exponent between MINPOLL and MAXPOLL.
+ * 
+ * The offset measured by a sync is the error the clock accumulated since it was last adjusted.
+ * Divided by the time passed it gives the rate the error grows with, which is the residual
+ * frequency error when drift correction is enabled. The interval is chosen so that the error
+ * stays within the target accuracy, less the jitter of the servers that limits every measurement.
+ * It is shortened at once when the clock is less stable than expected and widened by at most a
+ * factor of two per sync, so a single lucky measurement does not stretch it too far.
+ */
+public class PollScheduler {
+    private static final String PREFS_NAME = "poll";
+    private static final String KEY_POLL = "poll";
+
+    /** shortest interval, 2^10 s (about 17 minutes) */
+    static final int MIN_POLL = 10;
+
+    /** longest interval, 2^16 s (about 18 hours), so the clock is still synced daily */
+    static final int MAX_POLL = 16;
+
+    /** interval until the clock has been measured, about the former daily sync */
+    static final int DEFAULT_POLL = MAX_POLL;
+
+    /** maximum error the clock should accumulate between syncs */
+    static final long TARGET_ACCURACY_NS = 100000000L;
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param context
+     * @return current poll exponent, the interval is 2^poll seconds
+     */
+    public static synchronized int getPoll(Context context) {
+        return getPrefs(context).getInt(KEY_POLL, DEFAULT_POLL);
+    }
+
+    /**
+     * @param context
+     * @return current interval between background syncs in milliseconds
+     */
+    public static long getIntervalMs(Context context) {
+        return (1L << getPoll(context)) * 1000L;
+    }
+
+    /**
+     * Adapts the poll exponent to a sync. Has to be called before the clock is adjusted by the
+     * measured offset.
+     * 
+     * @param context
+     * @param result
+     *            result of the sync
+     * @return new poll exponent
+     */
+    public static int update(Context context, ClockSelection.Result result) {
+        return update(context, result, System.currentTimeMillis());
+    }
+
+    static synchronized int update(Context context, ClockSelection.Result result, long now) {
+        int poll = getPoll(context);
+
+        // the first sync gives nothing to compare with, keep the interval
+        long lastAdjustment = DriftEstimator.getLastAdjustmentMs(context);
+        long elapsed = now - lastAdjustment;
+        if (lastAdjustment != 0 && elapsed > 0) {
+            // nanoseconds per millisecond are ppm
+            double ppm = Math.abs(result.getOffsetNs()) / (double) elapsed;
+            long budget = Math.max(TARGET_ACCURACY_NS - result.getJitterNs(), 0);
+            int target = MAX_POLL;
+            if (ppm > 0) {
+                // budget in ns / ppm is the interval in ms
+                double intervalSec = budget / ppm / 1000.0;
+                target = (intervalSec < 1) ? 0
+                        : (int) Math.floor(Math.log(intervalSec) / Math.log(2));
+            }
+            poll = (target < poll) ? target : Math.min(poll + 1, target);
+            Log.d(Constants.TAG, "Error grows " + ppm + " ppm, poll exponent " + poll);
+        }
+
+        // servers may ask to be polled less often, honour their poll field
+        int serverPoll = result.getSystemPeer().getMessage().getPoll();
+        poll = Math.max(Math.max(poll, serverPoll), MIN_POLL);
+        poll = Math.min(poll, MAX_POLL);
+
+        getPrefs(context).edit().putInt(KEY_POLL, poll).commit();
+        return poll;
+    }
+}
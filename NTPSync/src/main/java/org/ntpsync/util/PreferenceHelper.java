@@ -61,4 +61,68 @@ public class PreferenceHelper {
                 Boolean.parseBoolean(context.getString(R.string.pref_show_sync_toast_def)));
     }
 
-}
\ No newline at end of file
+    public static boolean getNtpServerMode(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getBoolean(context.getString(R.string.pref_ntp_server_mode_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_ntp_server_mode_def)));
+    }
+
+    public static boolean getSlewClock(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getBoolean(context.getString(R.string.pref_slew_clock_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_slew_clock_def)));
+    }
+
+    public static boolean getDriftCorrection(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getBoolean(context.getString(R.string.pref_drift_correction_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_drift_correction_def)));
+    }
+
+    public static boolean getResolveReference(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        return prefs.getBoolean(context.getString(R.string.pref_resolve_reference_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_resolve_reference_def)));
+    }
+
+    public static int getNtpServerPort(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String def = context.getString(R.string.pref_ntp_server_port_def);
+        try {
+            return Integer.parseInt(prefs.getString(
+                    context.getString(R.string.pref_ntp_server_port_key), def).trim());
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(def);
+        }
+    }
+
+    public static int getOffsetCacheMaxAge(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String def = context.getString(R.string.pref_offset_cache_max_age_def);
+        try {
+            return Integer.parseInt(prefs.getString(
+                    context.getString(R.string.pref_offset_cache_max_age_key), def).trim());
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(def);
+        }
+    }
+
+    public static int getOffsetCacheMaxError(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String def = context.getString(R.string.pref_offset_cache_max_error_def);
+        try {
+            return Integer.parseInt(prefs.getString(
+                    context.getString(R.string.pref_offset_cache_max_error_key), def).trim());
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(def);
+        }
+    }
+
+}
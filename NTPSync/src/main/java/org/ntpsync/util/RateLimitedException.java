@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when no server was queried because all of them were asked too often recently, either
+ * by the pacing of {@link RequestPacer} or by RATE kiss-o'-death replies
+ */
+public class RateLimitedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RateLimitedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.net.ntp.NtpUtils;
+import org.apache.commons.net.ntp.TimeInfo;
+
+import android.os.SystemClock;
+
+/**
+ * Paces the requests sent to every server with a token bucket, so that queries in quick
+ * succession (several apps asking, repeated queries from the UI) stay within the rate limits
+ * servers commonly enforce. The bucket holds a burst of requests and refills with one request
+ * every 8 seconds, the default average interval of the reference implementation's rate limit.
+ * A server that answers with a RATE kiss-o'-death packet gets an empty bucket and half the rate,
+ * down to one request per 1024 seconds, until it answers normally again.
+ */
+public class RequestPacer {
+    /** requests a full bucket allows at once */
+    static final int CAPACITY = 8;
+
+    /** interval one request is refilled in */
+    static final long REFILL_MS = 8 * 1000L;
+
+    /** longest refill interval after RATE kiss-o'-death packets */
+    static final long MAX_REFILL_MS = 1024 * 1000L;
+
+    /**
+     * Token bucket of one server
+     */
+    private static class Bucket {
+        double mTokens = CAPACITY;
+        long mRefillMs = REFILL_MS;
+        /** elapsed real time of the last refill */
+        long mUpdatedMs;
+
+        Bucket(long nowMs) {
+            mUpdatedMs = nowMs;
+        }
+
+        void refill(long nowMs) {
+            mTokens = Math.min(CAPACITY, mTokens + (nowMs - mUpdatedMs) / (double) mRefillMs);
+            mUpdatedMs = nowMs;
+        }
+    }
+
+    private static final Map<InetAddress, Bucket> buckets = new HashMap<InetAddress, Bucket>();
+
+    private static Bucket getBucket(InetAddress address, long nowMs) {
+        Bucket bucket = buckets.get(address);
+        if (bucket == null) {
+            bucket = new Bucket(nowMs);
+            buckets.put(address, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Takes up to the wanted number of requests from the bucket of each server
+     *
+     * @param addresses
+     * @param wanted
+     *            requests to send to every server
+     * @return number of requests allowed per server, in the order of addresses, 0 if a server
+     *         must not be queried now
+     */
+    public static int[] acquire(List<InetAddress> addresses, int wanted) {
+        return acquire(addresses, wanted, SystemClock.elapsedRealtime());
+    }
+
+    static synchronized int[] acquire(List<InetAddress> addresses, int wanted, long now) {
+        int[] allowed = new int[addresses.size()];
+        for (int i = 0; i < allowed.length; i++) {
+            Bucket bucket = getBucket(addresses.get(i), now);
+            bucket.refill(now);
+            allowed[i] = Math.min(wanted, (int) bucket.mTokens);
+            bucket.mTokens -= allowed[i];
+            if (allowed[i] < wanted) {
+                Log.d(Constants.TAG, "Pacing " + addresses.get(i) + ", " + allowed[i] + " of "
+                        + wanted + " requests allowed");
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Adapts the rate of every server to its replies, RATE kiss-o'-death packets slow it down
+     *
+     * @param replies
+     */
+    public static void update(List<TimeInfo> replies) {
+        update(replies, SystemClock.elapsedRealtime());
+    }
+
+    static synchronized void update(List<TimeInfo> replies, long now) {
+        // replies of earlier requests may arrive after a kiss-o'-death packet
+        Set<InetAddress> kissed = new HashSet<InetAddress>();
+        Set<InetAddress> answered = new HashSet<InetAddress>();
+        for (TimeInfo info : replies) {
+            String kissCode = NtpUtils.getKissCode(info.getMessage());
+            if (NtpUtils.KISS_RATE.equals(kissCode)) {
+                kissed.add(info.getAddress());
+            } else if (kissCode == null) {
+                answered.add(info.getAddress());
+            }
+        }
+
+        for (InetAddress address : kissed) {
+            Bucket bucket = getBucket(address, now);
+            bucket.mTokens = 0;
+            bucket.mUpdatedMs = now;
+            bucket.mRefillMs = Math.min(bucket.mRefillMs * 2, MAX_REFILL_MS);
+            Log.d(Constants.TAG, address + " asked to slow down, one request per "
+                    + bucket.mRefillMs / 1000 + " s");
+        }
+        answered.removeAll(kissed);
+        for (InetAddress address : answered) {
+            Bucket bucket = getBucket(address, now);
+            // the time so far refills at the slower rate
+            bucket.refill(now);
+            bucket.mRefillMs = REFILL_MS;
+        }
+    }
+
+    /**
+     * Forgets the buckets of all servers
+     */
+    static synchronized void clear() {
+        buckets.clear();
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.net.ntp.NtpUtils;
+import org.apache.commons.net.ntp.TimeInfo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persistent health record of every server address queried so far. Keeps the reachability
+ * register of RFC 5905 (one bit per query, set if the server answered), an average of the
+ * roundtrip delay, the number of consecutive failures and the kiss code of the last
+ * kiss-o'-death reply. Servers that failed are skipped for an exponentially growing time, so a
+ * dead server does not cost a timeout on every sync.
+ *
+ * The records have to survive reboots, so their times are system times. Adjustments of the
+ * clock by NTPSync shift them along, see {@link #onClockAdjusted(Context, long)}. A retry time
+ * further ahead than any backoff, left by a clock set back by someone else, is ignored.
+ */
+public class ServerScoreboard {
+    private static final String PREFS_NAME = "servers";
+
+    private static final long MINUTE_MS = 60 * 1000L;
+    private static final long DAY_MS = 24 * 60 * MINUTE_MS;
+
+    /** a server that failed once is skipped this long, doubled with every further failure */
+    static final long MIN_BACKOFF_MS = 5 * MINUTE_MS;
+
+    /** longest time a server is skipped after failures */
+    static final long MAX_BACKOFF_MS = DAY_MS;
+
+    /** time a server that denied access is skipped, its record is dropped meanwhile */
+    static final long DENY_BACKOFF_MS = 30 * DAY_MS;
+
+    /** records not updated for this long are dropped */
+    static final long MAX_AGE_MS = 30 * DAY_MS;
+
+    /** weight of a new roundtrip delay in the average (1/8 like TCP) */
+    private static final double RTT_WEIGHT = 1 / 8.0;
+
+    /** bounds of the reply timeout derived from the roundtrip delays */
+    static final int MIN_TIMEOUT_MS = 2000;
+    static final int MAX_TIMEOUT_MS = 10000;
+
+    /**
+     * Health record of one server address
+     */
+    static class Score {
+        /** reachability register, bit 0 is the last query */
+        int mReach;
+        /** average roundtrip delay, -1 if the server never answered */
+        long mRoundtripNs = -1;
+        int mFailures;
+        /** system time until which the server is skipped */
+        long mRetryAtMs;
+        /** kiss code of the last kiss-o'-death reply, empty if none */
+        String mKissCode = "";
+        /** system time of the last update */
+        long mUpdatedMs;
+
+        static Score parse(String value) {
+            Score score = new Score();
+            String[] fields = value.split(",", -1);
+            try {
+                score.mReach = Integer.parseInt(fields[0]);
+                score.mRoundtripNs = Long.parseLong(fields[1]);
+                score.mFailures = Integer.parseInt(fields[2]);
+                score.mRetryAtMs = Long.parseLong(fields[3]);
+                score.mKissCode = fields[4];
+                score.mUpdatedMs = Long.parseLong(fields[5]);
+            } catch (RuntimeException e) {
+                // corrupt record, start over
+                return new Score();
+            }
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return mReach + "," + mRoundtripNs + "," + mFailures + "," + mRetryAtMs + ","
+                    + mKissCode + "," + mUpdatedMs;
+        }
+
+        boolean isUsable(long nowMs) {
+            return nowMs >= mRetryAtMs || mRetryAtMs - nowMs > DENY_BACKOFF_MS;
+        }
+
+        void backOff(long nowMs) {
+            mRetryAtMs = nowMs + Math.min(MIN_BACKOFF_MS << Math.min(mFailures - 1, 16),
+                    MAX_BACKOFF_MS);
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static String key(InetAddress address) {
+        return address.getHostAddress();
+    }
+
+    private static Score getScore(SharedPreferences prefs, InetAddress address) {
+        String value = prefs.getString(key(address), null);
+        return (value == null) ? new Score() : Score.parse(value);
+    }
+
+    /**
+     * Orders servers for the next query: usable servers first, those answering most reliably and
+     * then fastest first, followed by the skipped servers, those to be retried soonest first.
+     *
+     * @param context
+     * @param addresses
+     * @return addresses in order of preference
+     */
+    public static synchronized List<InetAddress> order(Context context, InetAddress[] addresses) {
+        SharedPreferences prefs = getPrefs(context);
+        final long now = System.currentTimeMillis();
+        final Map<InetAddress, Score> scores = new HashMap<InetAddress, Score>();
+        for (InetAddress address : addresses) {
+            scores.put(address, getScore(prefs, address));
+        }
+
+        List<InetAddress> ordered = new ArrayList<InetAddress>(Arrays.asList(addresses));
+        Collections.sort(ordered, new Comparator<InetAddress>() {
+            @Override
+            public int compare(InetAddress lhs, InetAddress rhs) {
+                Score l = scores.get(lhs);
+                Score r = scores.get(rhs);
+                if (l.isUsable(now) != r.isUsable(now)) {
+                    return l.isUsable(now) ? -1 : 1;
+                }
+                if (!l.isUsable(now)) {
+                    return compareLongs(l.mRetryAtMs, r.mRetryAtMs);
+                }
+                int reach = Integer.bitCount(r.mReach) - Integer.bitCount(l.mReach);
+                if (reach != 0) {
+                    return reach;
+                }
+                // servers that never answered go last
+                return compareLongs(
+                        (l.mRoundtripNs < 0) ? Long.MAX_VALUE : l.mRoundtripNs,
+                        (r.mRoundtripNs < 0) ? Long.MAX_VALUE : r.mRoundtripNs);
+            }
+        });
+        return ordered;
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+    }
+
+    /**
+     * @return true if the server is not being skipped after failures
+     */
+    public static synchronized boolean isUsable(Context context, InetAddress address) {
+        return getScore(getPrefs(context), address).isUsable(System.currentTimeMillis());
+    }
+
+    /**
+     * Timeout for the replies of the given servers: four times the slowest average roundtrip
+     * delay, within 2 to 10 seconds. Servers without a known roundtrip get the full 10 seconds.
+     */
+    public static synchronized int getTimeoutMs(Context context,
+            Collection<InetAddress> addresses) {
+        SharedPreferences prefs = getPrefs(context);
+        long slowestNs = 0;
+        for (InetAddress address : addresses) {
+            long roundtripNs = getScore(prefs, address).mRoundtripNs;
+            if (roundtripNs < 0) {
+                return MAX_TIMEOUT_MS;
+            }
+            slowestNs = Math.max(slowestNs, roundtripNs);
+        }
+        long timeoutMs = 4 * slowestNs / 1000000L;
+        return (int) Math.max(MIN_TIMEOUT_MS, Math.min(timeoutMs, MAX_TIMEOUT_MS));
+    }
+
+    /**
+     * @return kiss code of the first kiss-o'-death reply of the server, null if there is none
+     */
+    private static String getKissCode(InetAddress address, List<TimeInfo> replies) {
+        for (TimeInfo info : replies) {
+            String kissCode = NtpUtils.getKissCode(info.getMessage());
+            if (kissCode != null && address.equals(info.getAddress())) {
+                return kissCode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shifts the times of all records by an adjustment of the system time, so the servers are
+     * skipped for as long as intended
+     *
+     * @param context
+     * @param offsetMs
+     *            offset the clock has been adjusted by in milliseconds
+     */
+    public static synchronized void onClockAdjusted(Context context, long offsetMs) {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof String) {
+                Score score = Score.parse((String) entry.getValue());
+                if (score.mRetryAtMs != 0) {
+                    score.mRetryAtMs += offsetMs;
+                }
+                score.mUpdatedMs += offsetMs;
+                editor.putString(entry.getKey(), score.toString());
+            }
+        }
+        editor.commit();
+    }
+
+    /**
+     * Records the outcome of a query. If no server answered at all the network is more likely
+     * down than all servers, then only the reachability registers are shifted.
+     *
+     * @param context
+     * @param queried
+     *            servers the query was sent to
+     * @param replies
+     *            replies with details computed
+     */
+    public static synchronized void update(Context context, Collection<InetAddress> queried,
+            List<TimeInfo> replies) {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        long now = System.currentTimeMillis();
+
+        // forget servers not queried for a long time, pools hand out new ones all the time
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof String
+                    && now - Score.parse((String) entry.getValue()).mUpdatedMs > MAX_AGE_MS) {
+                editor.remove(entry.getKey());
+            }
+        }
+
+        for (InetAddress address : queried) {
+            Score score = getScore(prefs, address);
+            score.mReach = (score.mReach << 1) & 0xff;
+            score.mUpdatedMs = now;
+
+            // a kiss-o'-death reply carries no time, it counts whether or not a delay is known
+            String kissCode = getKissCode(address, replies);
+            score.mKissCode = (kissCode == null) ? "" : kissCode;
+
+            // the reply with the lowest delay, least disturbed by queueing
+            TimeInfo best = null;
+            for (TimeInfo info : replies) {
+                if (address.equals(info.getAddress()) && info.hasDelay()
+                        && NtpUtils.getKissCode(info.getMessage()) == null
+                        && (best == null || info.getDelayNsValue() < best.getDelayNsValue())) {
+                    best = info;
+                }
+            }
+
+            if (NtpUtils.KISS_DENY.equals(kissCode) || NtpUtils.KISS_RSTR.equals(kissCode)) {
+                // the server does not want to be asked again
+                Log.d(Constants.TAG, address + " denied access: " + kissCode);
+                score.mRetryAtMs = now + DENY_BACKOFF_MS;
+            } else if (NtpUtils.KISS_RATE.equals(kissCode)) {
+                // asked too often, wait like after a failure
+                score.mFailures++;
+                score.backOff(now);
+            } else if (best != null) {
+                score.mReach |= 1;
+                long roundtripNs = Math.max(best.getDelayNsValue(), 0);
+                score.mRoundtripNs = (score.mRoundtripNs < 0) ? roundtripNs : Math.round(
+                        score.mRoundtripNs + (roundtripNs - score.mRoundtripNs) * RTT_WEIGHT);
+                score.mFailures = 0;
+                score.mRetryAtMs = 0;
+            } else if (!replies.isEmpty()) {
+                score.mFailures++;
+                score.backOff(now);
+                Log.d(Constants.TAG, address + " did not answer, " + score.mFailures
+                        + " failures in a row");
+            }
+            editor.putString(key(address), score.toString());
+        }
+        editor.commit();
+    }
+}
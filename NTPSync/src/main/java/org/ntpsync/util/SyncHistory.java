@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.net.ntp.TimeInfo;
+
+import android.content.Context;
+
+/**
+ * History of past syncs in a memory mapped ring file of fixed-size records. Appending writes one
+ * record into the mapping without any system call, the oldest record is overwritten once the
+ * ring is full. Only syncs with the configured servers are recorded, and a sync whose true time
+ * is before the last record's is dropped, so the records are in the order of time.
+ *
+ * The file starts with a header (magic, version, capacity, number of records ever appended)
+ * followed by the records. A record is written before the count is increased, so a crash never
+ * exposes a half-written record.
+ */
+public class SyncHistory {
+    private static final String FILE_NAME = "history";
+
+    private static final int MAGIC = 0x4e545048; // "NTPH"
+    private static final int VERSION = 1;
+
+    /** number of records kept, about 7 months of hourly syncs */
+    static final int CAPACITY = 4096;
+
+    // header layout
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_COUNT = 16;
+    private static final int HEADER_SIZE = 32;
+
+    // record layout
+    private static final int RECORD_TIME = 0;
+    private static final int RECORD_OFFSET = 8;
+    private static final int RECORD_DELAY = 16;
+    private static final int RECORD_ROOT_DISTANCE = 24;
+    private static final int RECORD_SERVER = 32;
+    private static final int RECORD_STRATUM = 48;
+    private static final int RECORD_FLAGS = 49;
+    private static final int RECORD_SIZE = 56;
+
+    private static final int FLAG_APPLIED = 1;
+
+    private static MappedByteBuffer sBuffer;
+
+    /**
+     * One sync
+     */
+    public static class Record {
+        private final long mTimeMs;
+        private final long mOffsetNs;
+        private final long mDelayNs;
+        private final long mRootDistanceNs;
+        private final byte[] mServer;
+        private final int mStratum;
+        private final boolean mApplied;
+
+        Record(long timeMs, long offsetNs, long delayNs, long rootDistanceNs, byte[] server,
+                int stratum, boolean applied) {
+            mTimeMs = timeMs;
+            mOffsetNs = offsetNs;
+            mDelayNs = delayNs;
+            mRootDistanceNs = rootDistanceNs;
+            mServer = server;
+            mStratum = stratum;
+            mApplied = applied;
+        }
+
+        /**
+         * @return true time of the sync in milliseconds since 1970
+         */
+        public long getTimeMs() {
+            return mTimeMs;
+        }
+
+        /**
+         * @return offset of the system time in nanoseconds
+         */
+        public long getOffsetNs() {
+            return mOffsetNs;
+        }
+
+        /**
+         * @return roundtrip delay to the system peer in nanoseconds
+         */
+        public long getDelayNs() {
+            return mDelayNs;
+        }
+
+        /**
+         * @return root synchronization distance in nanoseconds
+         */
+        public long getRootDistanceNs() {
+            return mRootDistanceNs;
+        }
+
+        /**
+         * @return address of the system peer, null if it is not known
+         */
+        public InetAddress getServer() {
+            try {
+                return InetAddress.getByAddress(mServer);
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return stratum of the system peer
+         */
+        public int getStratum() {
+            return mStratum;
+        }
+
+        /**
+         * @return true if the system time was set from this sync
+         */
+        public boolean isApplied() {
+            return mApplied;
+        }
+    }
+
+    /**
+     * Maps the file on first use and starts over if it has a different layout
+     */
+    private static MappedByteBuffer getBuffer(Context context) throws IOException {
+        if (sBuffer == null) {
+            int size = HEADER_SIZE + CAPACITY * RECORD_SIZE;
+            RandomAccessFile file = new RandomAccessFile(new File(context.getFilesDir(),
+                    FILE_NAME), "rw");
+            try {
+                file.setLength(size);
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        0, size);
+                if (buffer.getInt(HEADER_MAGIC) != MAGIC
+                        || buffer.getInt(HEADER_VERSION) != VERSION
+                        || buffer.getInt(HEADER_CAPACITY) != CAPACITY) {
+                    buffer.putLong(HEADER_COUNT, 0);
+                    buffer.putInt(HEADER_MAGIC, MAGIC);
+                    buffer.putInt(HEADER_VERSION, VERSION);
+                    buffer.putInt(HEADER_CAPACITY, CAPACITY);
+                }
+                sBuffer = buffer;
+            } finally {
+                // the mapping stays valid
+                file.close();
+            }
+        }
+        return sBuffer;
+    }
+
+    /**
+     * Forgets the mapping, the file is mapped again on next use
+     */
+    static synchronized void unmap() {
+        sBuffer = null;
+    }
+
+    /**
+     * @return position of the record with the given number in the file
+     */
+    private static int getPosition(long record) {
+        return HEADER_SIZE + (int) (record % CAPACITY) * RECORD_SIZE;
+    }
+
+    /**
+     * Appends a sync to the history
+     *
+     * @param context
+     * @param result
+     *            result of a system time query
+     * @param applied
+     *            true if the system time was set from it
+     */
+    public static void append(Context context, ClockSelection.Result result, boolean applied) {
+        long timeNs = result.getTrueTimeNs(result.getElapsedRealtimeNs());
+        append(context, result, applied, timeNs / 1000000L);
+    }
+
+    static synchronized void append(Context context, ClockSelection.Result result,
+            boolean applied, long timeMs) {
+        try {
+            MappedByteBuffer buffer = getBuffer(context);
+            long count = buffer.getLong(HEADER_COUNT);
+            if (count > 0 && timeMs < buffer.getLong(getPosition(count - 1) + RECORD_TIME)) {
+                // one of both true times is wrong, the range scan needs them in order
+                Log.w(Constants.TAG, "Sync at " + timeMs
+                        + " ms is before the last one, not recorded!");
+                return;
+            }
+            int position = getPosition(count);
+
+            TimeInfo peer = result.getSystemPeer();
+            buffer.putLong(position + RECORD_TIME, timeMs);
+            buffer.putLong(position + RECORD_OFFSET, result.getOffsetNs());
+            buffer.putLong(position + RECORD_DELAY, result.getDelayNs());
+            buffer.putLong(position + RECORD_ROOT_DISTANCE, result.getErrorBoundNs());
+            buffer.position(position + RECORD_SERVER);
+            buffer.put(toIpv6(peer.getAddress()));
+            buffer.put(position + RECORD_STRATUM, (byte) peer.getMessage().getStratum());
+            buffer.put(position + RECORD_FLAGS, (byte) (applied ? FLAG_APPLIED : 0));
+
+            buffer.putLong(HEADER_COUNT, count + 1);
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Writing sync history failed!", e);
+        }
+    }
+
+    /**
+     * @return address as 16 bytes, IPv4 addresses mapped into IPv6
+     */
+    private static byte[] toIpv6(InetAddress address) {
+        byte[] ipv6 = new byte[16];
+        if (address == null) {
+            return ipv6;
+        }
+        byte[] raw = address.getAddress();
+        if (raw.length == 4) {
+            ipv6[10] = (byte) 0xff;
+            ipv6[11] = (byte) 0xff;
+            System.arraycopy(raw, 0, ipv6, 12, 4);
+        } else {
+            System.arraycopy(raw, 0, ipv6, 0, 16);
+        }
+        return ipv6;
+    }
+
+    /**
+     * Returns the syncs within a range of time, oldest first. Found by binary search, the records
+     * are in the order of time.
+     *
+     * @param context
+     * @param fromMs
+     *            true time in milliseconds since 1970, inclusive
+     * @param toMs
+     *            true time in milliseconds since 1970, exclusive
+     * @return records
+     */
+    public static synchronized List<Record> getRecords(Context context, long fromMs, long toMs) {
+        List<Record> records = new ArrayList<Record>();
+        try {
+            MappedByteBuffer buffer = getBuffer(context);
+            long count = buffer.getLong(HEADER_COUNT);
+
+            // binary search for the first record of the range
+            long low = Math.max(count - CAPACITY, 0);
+            long high = count;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (buffer.getLong(getPosition(middle) + RECORD_TIME) < fromMs) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            for (long i = low; i < count; i++) {
+                int position = getPosition(i);
+                long timeMs = buffer.getLong(position + RECORD_TIME);
+                if (timeMs >= toMs) {
+                    break;
+                }
+                byte[] server = new byte[16];
+                buffer.position(position + RECORD_SERVER);
+                buffer.get(server);
+                records.add(new Record(timeMs, buffer.getLong(position + RECORD_OFFSET),
+                        buffer.getLong(position + RECORD_DELAY),
+                        buffer.getLong(position + RECORD_ROOT_DISTANCE), server,
+                        buffer.get(position + RECORD_STRATUM) & 0xff,
+                        (buffer.get(position + RECORD_FLAGS) & FLAG_APPLIED) != 0));
+            }
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Reading sync history failed!", e);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.util.Random;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Spreads the background syncs of many devices over time, so that they do not hit the servers in
+ * the same minute. Every device draws a random phase once and keeps it: its syncs fall on the
+ * slots of the poll interval counted from 1970, shifted by the phase times the interval. Devices
+ * with the same interval are so spread evenly across it, and each device still syncs at regular
+ * times.
+ *
+ * Syncs deferred until the network returns are delayed by a random time instead, as many devices
+ * regain the network at the same moment after an outage.
+ */
+public class SyncSchedule {
+    private static final String PREFS_NAME = "schedule";
+    private static final String KEY_PHASE = "phase";
+
+    /** syncs deferred until the network returns are spread over this time */
+    static final long DEFER_WINDOW_MS = 10 * 60 * 1000L;
+
+    /** shortest delay of a deferred sync, lets the network settle */
+    static final long MIN_DEFER_MS = 10 * 1000L;
+
+    private static final Random random = new Random();
+
+    /**
+     * @param context
+     * @return phase of this device within the interval, from 0 to 1, drawn on first use
+     */
+    public static synchronized double getPhase(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        float phase = prefs.getFloat(KEY_PHASE, -1);
+        if (phase < 0) {
+            phase = random.nextFloat();
+            prefs.edit().putFloat(KEY_PHASE, phase).commit();
+            Log.d(Constants.TAG, "Sync phase of this device is " + phase);
+        }
+        return phase;
+    }
+
+    /**
+     * Returns the time of the next sync: the next slot of this device at least half an interval
+     * away, so a sync outside the slots (manual, after the network returned) is not followed by
+     * another one shortly after.
+     *
+     * @param context
+     * @param nowMs
+     *            current system time
+     * @param intervalMs
+     *            interval between syncs
+     * @return system time of the next sync, half to one and a half intervals from now
+     */
+    public static long getNextSyncMs(Context context, long nowMs, long intervalMs) {
+        long offsetMs = (long) (getPhase(context) * intervalMs);
+        long next = ((nowMs - offsetMs) / intervalMs + 1) * intervalMs + offsetMs;
+        if (next - nowMs < intervalMs / 2) {
+            next += intervalMs;
+        }
+        return next;
+    }
+
+    /**
+     * @return random delay of a sync deferred until the network returned
+     */
+    public static long getDeferDelayMs() {
+        return MIN_DEFER_MS + (long) (random.nextDouble() * (DEFER_WINDOW_MS - MIN_DEFER_MS));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.ntpsync.service.TrueTime;
+
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+
+/**
+ * Publishes the latest system time selection of the configured servers into a small memory mapped
+ * file, which client apps map read-only to compute the true time without IPC, see
+ * {@link TrueTime}.
+ */
+public class TrueTimePublisher {
+    private static final String FILE_NAME = "truetime";
+
+    private static MappedByteBuffer sBuffer;
+    /** elapsed real time of the published anchor */
+    private static long sAnchorElapsedRealtimeNs;
+
+    /**
+     * Maps the file on first use. An anchor left over from an earlier process may be from before
+     * a reboot and is cleared.
+     */
+    private static synchronized MappedByteBuffer getBuffer(Context context) throws IOException {
+        if (sBuffer == null) {
+            RandomAccessFile file = new RandomAccessFile(getFile(context), "rw");
+            try {
+                file.setLength(TrueTime.SIZE);
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                        TrueTime.SIZE);
+                buffer.order(ByteOrder.nativeOrder());
+                TrueTime.write(buffer, 0, 0, 0, 0);
+                sBuffer = buffer;
+            } finally {
+                // the mapping stays valid
+                file.close();
+            }
+        }
+        return sBuffer;
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Publishes a result of a system time query unless a newer one has been published
+     */
+    public static void publish(Context context, ClockSelection.Result result) {
+        try {
+            MappedByteBuffer buffer = getBuffer(context);
+
+            double frequencyPpm = DriftEstimator.getFrequencyPpm(context);
+            if (Double.isNaN(frequencyPpm)) {
+                frequencyPpm = 0;
+            }
+            long anchorNs = result.getElapsedRealtimeNs();
+
+            synchronized (TrueTimePublisher.class) {
+                if (anchorNs < sAnchorElapsedRealtimeNs) {
+                    return;
+                }
+                sAnchorElapsedRealtimeNs = anchorNs;
+                TrueTime.write(buffer, anchorNs, result.getTrueTimeNs(anchorNs), frequencyPpm,
+                        result.getErrorBoundNs());
+            }
+        } catch (IOException e) {
+            Log.e(Constants.TAG, "Publishing true time failed!", e);
+        }
+    }
+
+    /**
+     * @return read-only file descriptor of the shared memory for a client
+     */
+    public static ParcelFileDescriptor open(Context context) throws IOException {
+        getBuffer(context);
+        return ParcelFileDescriptor.open(getFile(context), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+}
@@ -23,6 +23,7 @@ package org.ntpsync.util;
 import org.ntpsync.R;
 import org.ntpsync.service.NtpSyncService;
 import org.sufficientlysecure.rootcommands.Shell;
+import org.sufficientlysecure.rootcommands.ShellPool;
 import org.sufficientlysecure.rootcommands.Toolbox;
 import org.sufficientlysecure.rootcommands.util.RootAccessDeniedException;
 
@@ -40,6 +41,13 @@ import android.view.View;
 
 public class Utils {
 
+    /** offsets up to this are slewed, larger ones stepped (STEPT of RFC 5905, 128 ms) */
+    public static final long SLEW_THRESHOLD_MS = 128;
+
+    /** the clock is slewed in steps of 1 ms every 100 ms, a rate of 1 % */
+    static final long SLEW_STEP_MS = 1;
+    static final long SLEW_STEP_INTERVAL_MS = 100;
+
     /**
      * Show dialog how to root Android
      * 
@@ -69,19 +77,74 @@ public class Utils {
     }
 
     /**
-     * Sets time in Android using RootCommands library
+     * Sets time in Android to the result of a query using RootCommands library. A step adds the
+     * offset in nanoseconds right after a millisecond of the system time began, so neither the
+     * truncation to milliseconds nor starting the root shell add to the error.
      * 
+     * @param context
+     * @param result
+     *            result of a system time query
+     * @return true if it succeeded
+     */
+    public static int setTime(Context context, ClockSelection.Result result) {
+        return setTime(context, result.getOffsetMs(), result,
+                PreferenceHelper.getSlewClock(context));
+    }
+
+    /**
+     * Adjusts time in Android by an offset using RootCommands library. Small offsets are slewed
+     * if enabled in the preferences, so the clock does not jump.
+     * 
+     * @param context
      * @param offset
      * @return true if it succeeded
      */
-    public static int setTime(long offset) {
+    public static int setTime(Context context, long offset) {
+        return setTime(context, offset, null, PreferenceHelper.getSlewClock(context));
+    }
+
+    /**
+     * Adjusts time in Android by an offset using RootCommands library, slewing small offsets
+     * regardless of the preferences. For corrections nobody asked for, which should not make the
+     * clock jump.
+     * 
+     * @param context
+     * @param offset
+     * @return true if it succeeded
+     */
+    public static int slewTime(Context context, long offset) {
+        return setTime(context, offset, null, true);
+    }
+
+    private static int setTime(Context context, long offset, ClockSelection.Result result,
+            boolean slew) {
+        // offset applied so far, also if slewing fails halfway
+        long[] applied = new long[1];
         try {
-            Shell rootShell = Shell.startRootShell();
-            Toolbox tb = new Toolbox(rootShell);
+            // the root shell stays open for the next adjustment, su is only asked once
+            ShellPool pool = ShellPool.getRootShellPool();
+            Shell rootShell = pool.borrowShell();
+            try {
+                Toolbox tb = new Toolbox(rootShell);
 
-            tb.adjustSystemClock(offset);
+                if (slew && Math.abs(offset) <= SLEW_THRESHOLD_MS) {
+                    tb.slewSystemClock(offset, SLEW_STEP_MS, SLEW_STEP_INTERVAL_MS, applied);
+                } else if (result != null) {
+                    applied[0] = tb.adjustSystemClockNs(result.getOffsetNs());
+                } else {
+                    tb.adjustSystemClock(offset);
+                    applied[0] = offset;
+                }
+            } finally {
+                pool.returnShell(rootShell);
 
-            rootShell.close();
+                // samples taken before the clock was set have the old offset
+                if (applied[0] != 0) {
+                    NtpSyncUtils.clearClockFilters();
+                    DriftEstimator.onClockAdjusted(context, applied[0]);
+                    ServerScoreboard.onClockAdjusted(context, applied[0]);
+                }
+            }
 
             Log.d(Constants.TAG, "Date was set using RootCommands library!");
 
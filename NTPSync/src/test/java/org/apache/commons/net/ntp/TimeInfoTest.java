@@ -0,0 +1,104 @@
+package org.apache.commons.net.ntp;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/***
+ * Tests the offset and delay computed by TimeInfo from the four timestamps
+ * of an NTP exchange.
+ ***/
+public class TimeInfoTest
+{
+    private static final long NS_PER_MS = TimeStamp.NS_PER_MS;
+
+    /** 2026-01-01T00:00:00Z, far beyond the resolution of a double */
+    private static final long T1 = 1767225600000L * NS_PER_MS;
+
+    private static long ntp(long nanos)
+    {
+        return nanos == 0 ? 0 : TimeStamp.getNtpTimeFromNanos(nanos).ntpValue();
+    }
+
+    private static TimeInfo exchange(long t1, long t2, long t3, long t4)
+    {
+        NtpV3Impl message = new NtpV3Impl();
+        message.setOriginateTimeStampValue(ntp(t1));
+        message.setReceiveTimeStampValue(ntp(t2));
+        message.setTransmitTimeValue(ntp(t3));
+        return new TimeInfo(message, ntp(t4), true);
+    }
+
+    @Test
+    public void nanosecondRoundTrip()
+    {
+        long nanos = T1 + 123456789L;
+        assertEquals(nanos, TimeStamp.getTimeNanos(ntp(nanos)));
+    }
+
+    @Test
+    public void offsetAndDelay()
+    {
+        // server 1.234567 ms ahead, 10.000002 ms roundtrip, 0.5 ms processing
+        long t2 = T1 + 5000001L + 1234567L;
+        long t3 = t2 + 500000L;
+        long t4 = T1 + 10000002L + 500000L;
+        TimeInfo info = exchange(T1, t2, t3, t4);
+
+        assertTrue(info.hasOffset());
+        assertTrue(info.hasDelay());
+        assertEquals(1234567L, info.getOffsetNsValue());
+        assertEquals(10000002L, info.getDelayNsValue());
+    }
+
+    @Test
+    public void negativeOffset()
+    {
+        long t2 = T1 + 1000L - 7L * 1000 * NS_PER_MS;
+        long t4 = T1 + 2000L;
+        TimeInfo info = exchange(T1, t2, t2, t4);
+
+        assertEquals(-7L * 1000 * NS_PER_MS, info.getOffsetNsValue());
+        assertEquals(2000L, info.getDelayNsValue());
+    }
+
+    @Test
+    public void zeroOriginateTime()
+    {
+        long t3 = T1 + 3 * NS_PER_MS;
+        TimeInfo info = exchange(0, t3, t3, T1);
+
+        assertFalse(info.hasDelay());
+        assertTrue(info.hasOffset());
+        assertEquals(3 * NS_PER_MS, info.getOffsetNsValue());
+    }
+
+    @Test
+    public void transmitBeforeReceive()
+    {
+        long t2 = T1 + 2 * NS_PER_MS;
+        TimeInfo info = exchange(T1, t2, t2 - NS_PER_MS, T1 + 4 * NS_PER_MS);
+
+        // processing time is not subtracted from the delay
+        assertEquals(4 * NS_PER_MS, info.getDelayNsValue());
+        assertFalse(info.getComments().isEmpty());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.service;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DriftCorrectionServiceTest {
+    private static final long NS_PER_MS = 1000000L;
+
+    @Test
+    public void delayUntilCorrectionIsDue() {
+        // 10 ppm accumulate 50 ms in 5000 s
+        assertEquals(5000 * 1000L, DriftCorrectionService.getDelayMs(10, 0));
+        assertEquals(12500 * 1000L, DriftCorrectionService.getDelayMs(-2, -25 * NS_PER_MS));
+    }
+
+    @Test
+    public void delayIsClamped() {
+        assertEquals(DriftCorrectionService.MAX_INTERVAL_MS,
+                DriftCorrectionService.getDelayMs(0, 0));
+        assertEquals(DriftCorrectionService.MAX_INTERVAL_MS,
+                DriftCorrectionService.getDelayMs(0.01, 0));
+        assertEquals(DriftCorrectionService.MIN_INTERVAL_MS,
+                DriftCorrectionService.getDelayMs(500, 0));
+        assertEquals(DriftCorrectionService.MIN_INTERVAL_MS,
+                DriftCorrectionService.getDelayMs(10, 60 * NS_PER_MS));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrueTimeTest {
+    private static final long NS_PER_SEC = 1000000000L;
+
+    /** 2026-01-01T00:00:00Z */
+    private static final long TIME_NS = 1767225600L * NS_PER_SEC;
+
+    private ByteBuffer mBuffer;
+    private TrueTime mTrueTime;
+
+    @Before
+    public void setUp() {
+        mBuffer = ByteBuffer.allocate(TrueTime.SIZE).order(ByteOrder.nativeOrder());
+        TrueTime.write(mBuffer, 0, 0, 0, 0);
+        mTrueTime = new TrueTime(mBuffer);
+    }
+
+    @Test
+    public void notSyncedYet() {
+        assertFalse(mTrueTime.getTime(NS_PER_SEC, new long[2]));
+    }
+
+    @Test
+    public void roundTrip() {
+        TrueTime.write(mBuffer, 100 * NS_PER_SEC, TIME_NS, 10, 5000000L);
+
+        long[] result = new long[2];
+        assertTrue(mTrueTime.getTime(101 * NS_PER_SEC, result));
+        // a slow oscillator by 10 ppm lags 10 us per second, 15 ppm of a second add to the error
+        assertEquals(TIME_NS + NS_PER_SEC + 10000L, result[0]);
+        assertEquals(5000000L + 15000L, result[1]);
+    }
+
+    @Test
+    public void sequenceIsEvenAfterWrite() {
+        TrueTime.write(mBuffer, 100 * NS_PER_SEC, TIME_NS, 0, 0);
+        int sequence = mBuffer.getInt(TrueTime.OFFSET_SEQUENCE);
+        TrueTime.write(mBuffer, 200 * NS_PER_SEC, TIME_NS, 0, 0);
+
+        assertEquals(0, sequence & 1);
+        assertEquals(sequence + 2, mBuffer.getInt(TrueTime.OFFSET_SEQUENCE));
+    }
+
+    @Test
+    public void checksumCoversSequenceAndValues() {
+        long checksum = TrueTime.checksum(2, 100 * NS_PER_SEC, TIME_NS, 10, 5000000L);
+
+        assertEquals(checksum, TrueTime.checksum(2, 100 * NS_PER_SEC, TIME_NS, 10, 5000000L));
+        assertTrue(checksum != TrueTime.checksum(4, 100 * NS_PER_SEC, TIME_NS, 10, 5000000L));
+        assertTrue(checksum != TrueTime.checksum(2, 100 * NS_PER_SEC, TIME_NS + 1, 10, 5000000L));
+        assertTrue(checksum != TrueTime.checksum(2, 100 * NS_PER_SEC, TIME_NS, 10.5, 5000000L));
+    }
+
+    @Test
+    public void rejectsTornWrite() {
+        TrueTime.write(mBuffer, 100 * NS_PER_SEC, TIME_NS, 0, 0);
+        // values of another write under the sequence of the last one
+        mBuffer.putLong(TrueTime.OFFSET_ANCHOR_TIME, TIME_NS + NS_PER_SEC);
+
+        assertFalse(mTrueTime.getTime(100 * NS_PER_SEC, new long[2]));
+    }
+
+    @Test
+    public void givesUpOnUnfinishedWrite() {
+        TrueTime.write(mBuffer, 100 * NS_PER_SEC, TIME_NS, 0, 0);
+        // the writer died after making the sequence odd
+        mBuffer.putInt(TrueTime.OFFSET_SEQUENCE, mBuffer.getInt(TrueTime.OFFSET_SEQUENCE) | 1);
+
+        assertFalse(mTrueTime.getTime(100 * NS_PER_SEC, new long[2]));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.ntpsync.util.NtpTestUtils.NS_PER_MS;
+import static org.ntpsync.util.NtpTestUtils.address;
+import static org.ntpsync.util.NtpTestUtils.kiss;
+import static org.ntpsync.util.NtpTestUtils.reply;
+
+import org.apache.commons.net.ntp.NtpUtils;
+import org.apache.commons.net.ntp.NtpV3Impl;
+import org.apache.commons.net.ntp.TimeInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClockFilterTest {
+    private ClockFilter mFilter;
+
+    @Before
+    public void setUp() {
+        mFilter = new ClockFilter();
+    }
+
+    @Test
+    public void selectsMinimumDelaySample() {
+        mFilter.add(reply(2, 5 * NS_PER_MS, 30 * NS_PER_MS), 0);
+        TimeInfo best = reply(2, 1 * NS_PER_MS, 10 * NS_PER_MS);
+        mFilter.add(best, 1000);
+        mFilter.add(reply(2, 3 * NS_PER_MS, 20 * NS_PER_MS), 2000);
+
+        assertSame(best, mFilter.getBest());
+        assertEquals(1 * NS_PER_MS, mFilter.getOffsetNs());
+        assertEquals(10 * NS_PER_MS, mFilter.getDelayNs());
+        // sqrt((2 ms^2 + 4 ms^2) / 2)
+        assertEquals(Math.round(Math.sqrt(10) * NS_PER_MS), mFilter.getJitterNs());
+    }
+
+    @Test
+    public void singleSampleHasNoJitter() {
+        mFilter.add(reply(2, 7 * NS_PER_MS, 10 * NS_PER_MS), 0);
+
+        assertEquals(7 * NS_PER_MS, mFilter.getOffsetNs());
+        assertEquals(0, mFilter.getJitterNs());
+    }
+
+    @Test
+    public void shiftsOutOldestStage() {
+        TimeInfo oldest = reply(2, 0, 1 * NS_PER_MS);
+        mFilter.add(oldest, 0);
+        for (int i = 0; i < ClockFilter.STAGES - 1; i++) {
+            mFilter.add(reply(2, 0, 50 * NS_PER_MS), i);
+        }
+        assertSame(oldest, mFilter.getBest());
+
+        mFilter.add(reply(2, 0, 50 * NS_PER_MS), ClockFilter.STAGES);
+        assertEquals(50 * NS_PER_MS, mFilter.getDelayNs());
+    }
+
+    @Test
+    public void discardsSamplesOlderThanMaxAge() {
+        mFilter.add(reply(2, 0, 1 * NS_PER_MS), 0);
+        TimeInfo recent = reply(2, 4 * NS_PER_MS, 50 * NS_PER_MS);
+        mFilter.add(recent, ClockFilter.MAX_AGE_MS + 1);
+
+        assertSame(recent, mFilter.getBest());
+        assertEquals(0, mFilter.getJitterNs());
+    }
+
+    @Test
+    public void dispersionGrowsWithAge() {
+        // precision of both clocks
+        long initial = ClockSelection.precisionToNanos(-20) + ClockSelection.LOCAL_PRECISION_NS;
+        mFilter.add(reply(2, 0, 10 * NS_PER_MS), 0);
+        assertEquals(initial / 2.0, mFilter.getDispersionNs(), 1);
+
+        // the first sample is 1000 s old when the next one comes in, 15 ppm of that are 15 ms
+        mFilter.add(reply(2, 0, 20 * NS_PER_MS), 1000 * 1000);
+        assertEquals((initial + 15 * NS_PER_MS) / 2.0 + initial / 4.0,
+                mFilter.getDispersionNs(), 1);
+    }
+
+    @Test
+    public void expiresWithLastSample() {
+        assertTrue(mFilter.isExpired(0));
+
+        mFilter.add(reply(2, 0, 10 * NS_PER_MS), 0);
+        assertFalse(mFilter.isExpired(ClockFilter.MAX_AGE_MS));
+        assertTrue(mFilter.isExpired(ClockFilter.MAX_AGE_MS + 1));
+    }
+
+    @Test
+    public void ignoresReplyWithoutOffset() {
+        assertFalse(mFilter.add(new TimeInfo(new NtpV3Impl(), 0, false), 0));
+
+        assertNull(mFilter.getBest());
+    }
+
+    @Test
+    public void ignoresKissOfDeath() {
+        TimeInfo reply = reply(2, 3 * NS_PER_MS, 40 * NS_PER_MS);
+        assertTrue(mFilter.add(reply, 0));
+        assertFalse(mFilter.add(kiss(address(1), NtpUtils.KISS_RATE, 1 * NS_PER_MS), 1000));
+
+        assertSame(reply, mFilter.getBest());
+        assertEquals(0, mFilter.getJitterNs());
+    }
+
+    @Test
+    public void clearDiscardsAllSamples() {
+        mFilter.add(reply(2, 0, 10 * NS_PER_MS), 0);
+        mFilter.clear();
+
+        assertNull(mFilter.getBest());
+        assertEquals(0, mFilter.getDispersionNs());
+        assertEquals(0, mFilter.getJitterNs());
+    }
+}
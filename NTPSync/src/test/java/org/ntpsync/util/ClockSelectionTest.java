@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.ntpsync.util.NtpTestUtils.NS_PER_MS;
+import static org.ntpsync.util.NtpTestUtils.filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.net.ntp.NtpV3Impl;
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.junit.Test;
+
+public class ClockSelectionTest {
+    private static final long DELAY_NS = 20 * NS_PER_MS;
+
+    @Test
+    public void singleServer() {
+        ClockSelection.Result result = ClockSelection.select(Collections.singletonList(filter(2,
+                42 * NS_PER_MS, DELAY_NS)));
+
+        assertEquals(42 * NS_PER_MS, result.getOffsetNs());
+        assertEquals(DELAY_NS, result.getDelayNs());
+        assertEquals(1, result.getSurvivors());
+    }
+
+    @Test
+    public void discardsFalseticker() {
+        ClockFilter peer = filter(1, 2 * NS_PER_MS, DELAY_NS);
+        ClockSelection.Result result = ClockSelection.select(Arrays.asList(
+                filter(2, 0, DELAY_NS), peer, filter(2, -1 * NS_PER_MS, DELAY_NS),
+                filter(2, 500 * NS_PER_MS, DELAY_NS)));
+
+        assertEquals(3, result.getSurvivors());
+        assertSame(peer.getBest(), result.getSystemPeer());
+        // equal root distances give equal weights
+        assertEquals(NS_PER_MS / 3.0, result.getOffsetNs(), 1);
+    }
+
+    @Test
+    public void noMajority() {
+        assertNull(ClockSelection.select(Arrays.asList(filter(2, 0, DELAY_NS),
+                filter(2, 1000 * NS_PER_MS, DELAY_NS))));
+    }
+
+    @Test
+    public void clusterPrunesOutlier() {
+        ClockSelection.Result result = ClockSelection.select(Arrays.asList(
+                filter(2, 0, DELAY_NS), filter(2, 0, DELAY_NS), filter(2, 0, DELAY_NS),
+                filter(2, 0, DELAY_NS), filter(2, 10 * NS_PER_MS, DELAY_NS)));
+
+        assertEquals(4, result.getSurvivors());
+        assertEquals(0, result.getOffsetNs());
+    }
+
+    @Test
+    public void rejectsKissOfDeath() {
+        assertNull(ClockSelection.select(Collections.singletonList(filter(0, 0, DELAY_NS))));
+    }
+
+    @Test
+    public void rejectsUnsynchronizedStratum() {
+        assertNull(ClockSelection.select(Collections.singletonList(
+                filter(ClockSelection.MAX_STRATUM, 0, DELAY_NS))));
+    }
+
+    @Test
+    public void rejectsAlarmCondition() {
+        ClockFilter filter = filter(2, 0, DELAY_NS);
+        ((NtpV3Impl) filter.getBest().getMessage())
+                .setLeapIndicator(NtpV3Packet.LI_ALARM_CONDITION);
+
+        assertNull(ClockSelection.select(Collections.singletonList(filter)));
+    }
+
+    @Test
+    public void rejectsExcessiveDistance() {
+        assertNull(ClockSelection.select(Collections.singletonList(filter(2, 0,
+                2 * ClockSelection.MAX_DISTANCE_NS))));
+    }
+
+    @Test
+    public void precisionToNanos() {
+        assertEquals(1000000000L, ClockSelection.precisionToNanos(0));
+        assertEquals(954, ClockSelection.precisionToNanos(-20));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DriftEstimatorTest {
+    private static final long NS_PER_MS = 1000000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    /** 2026-01-01T00:00:00Z */
+    private static final long START_MS = 1767225600000L;
+
+    private MemoryContext mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new MemoryContext();
+    }
+
+    /**
+     * Adds the offset a clock running slow by the given frequency error has after hours
+     */
+    private void addSample(double ppm, int hours, long errorNs) {
+        long elapsedMs = hours * HOUR_MS;
+        DriftEstimator.addSample(mContext, Math.round(ppm * elapsedMs) + errorNs, START_MS
+                + elapsedMs);
+    }
+
+    @Test
+    public void unknownWithTooFewSamples() {
+        addSample(10, 0, 0);
+        addSample(10, 12, 0);
+
+        assertTrue(Double.isNaN(DriftEstimator.getFrequencyPpm(mContext, START_MS + 12 * HOUR_MS)));
+    }
+
+    @Test
+    public void unknownWithTooShortSpan() {
+        for (int hours = 0; hours < 6; hours++) {
+            addSample(10, hours, 0);
+        }
+
+        assertTrue(Double.isNaN(DriftEstimator.getFrequencyPpm(mContext, START_MS + 5 * HOUR_MS)));
+    }
+
+    @Test
+    public void estimatesFrequency() {
+        for (int hours = 0; hours <= 12; hours += 3) {
+            addSample(-20, hours, 0);
+        }
+
+        assertEquals(-20, DriftEstimator.getFrequencyPpm(mContext, START_MS + 12 * HOUR_MS),
+                1e-6);
+    }
+
+    @Test
+    public void ignoresOutlier() {
+        addSample(10, 0, 0);
+        addSample(10, 3, 0);
+        addSample(10, 6, 500 * NS_PER_MS);
+        addSample(10, 9, 0);
+        addSample(10, 12, 0);
+
+        assertEquals(10, DriftEstimator.getFrequencyPpm(mContext, START_MS + 12 * HOUR_MS),
+                1e-6);
+    }
+
+    @Test
+    public void accountsForAdjustments() {
+        addSample(10, 0, 0);
+        // the clock is set after every sample, the next one only sees the new drift
+        for (int hours = 4; hours <= 12; hours += 4) {
+            DriftEstimator.addSample(mContext, 10 * 4 * HOUR_MS, START_MS + hours * HOUR_MS);
+            DriftEstimator.onClockAdjusted(mContext, 10 * 4 * HOUR_MS / NS_PER_MS);
+        }
+
+        assertEquals(10, DriftEstimator.getFrequencyPpm(mContext, START_MS + 12 * HOUR_MS),
+                1e-3);
+    }
+
+    @Test
+    public void rejectsImplausibleFrequency() {
+        for (int hours = 0; hours <= 12; hours += 3) {
+            addSample(2 * DriftEstimator.MAX_FREQUENCY_PPM, hours, 0);
+        }
+
+        assertTrue(Double.isNaN(DriftEstimator.getFrequencyPpm(mContext, START_MS + 12 * HOUR_MS)));
+    }
+
+    @Test
+    public void keepsRecentSamplesOnly() {
+        for (int hours = 0; hours <= 12; hours += 3) {
+            addSample(30, hours, 0);
+        }
+        long laterMs = START_MS + DriftEstimator.MAX_AGE_MS + 13 * HOUR_MS;
+        for (int hours = 0; hours <= 12; hours += 3) {
+            DriftEstimator.addSample(mContext, Math.round(5.0 * hours * HOUR_MS), laterMs + hours
+                    * HOUR_MS);
+        }
+
+        assertEquals(5, DriftEstimator.getFrequencyPpm(mContext, laterMs + 12 * HOUR_MS), 1e-6);
+    }
+
+    @Test
+    public void clearDiscardsSamples() {
+        for (int hours = 0; hours <= 12; hours += 3) {
+            addSample(10, hours, 0);
+        }
+        DriftEstimator.clear(mContext);
+
+        assertTrue(Double.isNaN(DriftEstimator.getFrequencyPpm(mContext, START_MS + 12 * HOUR_MS)));
+    }
+}
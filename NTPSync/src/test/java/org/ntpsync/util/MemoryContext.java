@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+
+/**
+ * Context whose shared preferences are kept in memory, for tests of code that persists its state
+ */
+public class MemoryContext extends ContextWrapper {
+    private final Map<String, MemoryPreferences> mPreferences =
+            new HashMap<String, MemoryPreferences>();
+
+    public MemoryContext() {
+        super(null);
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        MemoryPreferences prefs = mPreferences.get(name);
+        if (prefs == null) {
+            prefs = new MemoryPreferences();
+            mPreferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    private static class MemoryPreferences implements SharedPreferences {
+        private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<String, Object>(mValues);
+        }
+
+        private synchronized Object get(String key, Object defValue) {
+            return mValues.containsKey(key) ? mValues.get(key) : defValue;
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return (String) get(key, defValue);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return (Set<String>) get(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return (Integer) get(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return (Long) get(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return (Float) get(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return (Boolean) get(key, defValue);
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+        }
+
+        private class MemoryEditor implements Editor {
+            private final Map<String, Object> mChanges = new HashMap<String, Object>();
+            private final Set<String> mRemoved = new HashSet<String>();
+            private boolean mClear;
+
+            @Override
+            public Editor putString(String key, String value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                mChanges.put(key, values);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                mChanges.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                mRemoved.add(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                mClear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (MemoryPreferences.this) {
+                    if (mClear) {
+                        mValues.clear();
+                    }
+                    for (String key : mRemoved) {
+                        mValues.remove(key);
+                    }
+                    mValues.putAll(mChanges);
+                }
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                commit();
+            }
+        }
+    }
+}
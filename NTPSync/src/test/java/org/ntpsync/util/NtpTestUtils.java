@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.apache.commons.net.ntp.NtpV3Impl;
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.apache.commons.net.ntp.TimeInfo;
+import org.apache.commons.net.ntp.TimeStamp;
+
+/**
+ * Builds replies of NTP servers with a given offset and delay
+ */
+class NtpTestUtils {
+    static final long NS_PER_MS = 1000000L;
+
+    /** origin of the local clock in the tests, 2026-01-01T00:00:00Z */
+    static final long BASE_NS = 1767225600000L * NS_PER_MS;
+
+    /** 2^-8 s in NTP short format, about 3.9 ms */
+    static final int ROOT_DELAY = 1 << 8;
+    static final int ROOT_DISPERSION = 1 << 8;
+
+    /**
+     * @param stratum
+     * @param offsetNs
+     *            offset of the server clock to the local clock
+     * @param delayNs
+     *            roundtrip delay, symmetric
+     * @return reply with details computed
+     */
+    static TimeInfo reply(int stratum, long offsetNs, long delayNs) {
+        NtpV3Impl message = new NtpV3Impl();
+        message.setMode(NtpV3Packet.MODE_SERVER);
+        message.setVersion(NtpV3Packet.VERSION_4);
+        message.setLeapIndicator(NtpV3Packet.LI_NO_WARNING);
+        message.setStratum(stratum);
+        message.setPrecision(-20);
+        message.setRootDelay(ROOT_DELAY);
+        message.setRootDispersion(ROOT_DISPERSION);
+
+        long t1 = BASE_NS;
+        long t2 = t1 + delayNs / 2 + offsetNs;
+        long t4 = t1 + delayNs;
+        message.setOriginateTimeStampValue(TimeStamp.getNtpTimeFromNanos(t1).ntpValue());
+        message.setReceiveTimeStampValue(TimeStamp.getNtpTimeFromNanos(t2).ntpValue());
+        message.setTransmitTimeValue(TimeStamp.getNtpTimeFromNanos(t2).ntpValue());
+        return new TimeInfo(message, TimeStamp.getNtpTimeFromNanos(t4).ntpValue(), true);
+    }
+
+    /**
+     * @return reply as received from the given address
+     */
+    static TimeInfo reply(InetAddress address, int stratum, long offsetNs, long delayNs) {
+        TimeInfo info = reply(stratum, offsetNs, delayNs);
+        info.getMessage().getDatagramPacket().setAddress(address);
+        return info;
+    }
+
+    /**
+     * @return kiss-o'-death reply as sent by ntpd, with receive and transmit timestamps copied
+     *         from the originate timestamp
+     */
+    static TimeInfo kiss(InetAddress address, String kissCode, long delayNs) {
+        TimeInfo info = reply(address, 0, -delayNs / 2, delayNs);
+        NtpV3Impl message = (NtpV3Impl) info.getMessage();
+        int referenceId = 0;
+        for (int i = 0; i < 4; i++) {
+            referenceId = (referenceId << 8) | kissCode.charAt(i);
+        }
+        message.setReferenceId(referenceId);
+        return info;
+    }
+
+    /**
+     * @return documentation address (RFC 5737) ending in the given byte
+     */
+    static InetAddress address(int host) {
+        try {
+            return InetAddress.getByAddress(new byte[] { (byte) 192, 0, 2, (byte) host });
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return clock filter holding a single reply
+     */
+    static ClockFilter filter(int stratum, long offsetNs, long delayNs) {
+        ClockFilter filter = new ClockFilter();
+        filter.add(reply(stratum, offsetNs, delayNs), 0);
+        return filter;
+    }
+}
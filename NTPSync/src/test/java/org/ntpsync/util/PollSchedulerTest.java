@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.ntpsync.util.NtpTestUtils.NS_PER_MS;
+import static org.ntpsync.util.NtpTestUtils.filter;
+
+import java.util.Collections;
+
+import org.apache.commons.net.ntp.NtpV3Impl;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PollSchedulerTest {
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private MemoryContext mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new MemoryContext();
+    }
+
+    private static ClockSelection.Result result(long offsetNs) {
+        return ClockSelection.select(Collections.singletonList(filter(2, offsetNs,
+                20 * NS_PER_MS)));
+    }
+
+    /**
+     * Syncs the given time after the clock was last adjusted
+     */
+    private int update(long offsetNs, long elapsedMs) {
+        return PollScheduler.update(mContext, result(offsetNs), System.currentTimeMillis()
+                + elapsedMs);
+    }
+
+    @Test
+    public void firstSyncKeepsDefault() {
+        assertEquals(PollScheduler.DEFAULT_POLL, update(50 * NS_PER_MS, HOUR_MS));
+        assertEquals((1L << PollScheduler.DEFAULT_POLL) * 1000L,
+                PollScheduler.getIntervalMs(mContext));
+    }
+
+    @Test
+    public void shortensAtOnce() {
+        DriftEstimator.onClockAdjusted(mContext, 0);
+
+        // 100 ms in an hour, 99 ms of budget are used up after 3564 s, about 2^11 s
+        assertEquals(11, update(100 * NS_PER_MS, HOUR_MS));
+        assertEquals(11, PollScheduler.getPoll(mContext));
+    }
+
+    @Test
+    public void widensStepByStep() {
+        DriftEstimator.onClockAdjusted(mContext, 0);
+        update(100 * NS_PER_MS, HOUR_MS);
+
+        assertEquals(12, update(0, HOUR_MS));
+        assertEquals(13, update(0, HOUR_MS));
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        DriftEstimator.onClockAdjusted(mContext, 0);
+
+        assertEquals(PollScheduler.MIN_POLL, update(10000 * NS_PER_MS, HOUR_MS));
+        for (int i = 0; i < 10; i++) {
+            update(0, HOUR_MS);
+        }
+        assertEquals(PollScheduler.MAX_POLL, PollScheduler.getPoll(mContext));
+    }
+
+    @Test
+    public void honoursServerPoll() {
+        DriftEstimator.onClockAdjusted(mContext, 0);
+        ClockSelection.Result result = result(100 * NS_PER_MS);
+        ((NtpV3Impl) result.getSystemPeer().getMessage()).setPoll(14);
+
+        assertEquals(14, PollScheduler.update(mContext, result, System.currentTimeMillis()
+                + HOUR_MS));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ntpsync.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.ntpsync.util.NtpTestUtils.NS_PER_MS;
+import static org.ntpsync.util.NtpTestUtils.address;
+import static org.ntpsync.util.NtpTestUtils.kiss;
+import static org.ntpsync.util.NtpTestUtils.reply;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.net.ntp.NtpUtils;
+import org.apache.commons.net.ntp.TimeInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestPacerTest {
+    private static final InetAddress SERVER = address(1);
+    private static final InetAddress OTHER = address(2);
+
+    @Before
+    public void setUp() {
+        RequestPacer.clear();
+    }
+
+    private static int[] acquire(int wanted, long nowMs) {
+        return RequestPacer.acquire(Collections.singletonList(SERVER), wanted, nowMs);
+    }
+
+    private static void kissed(long nowMs) {
+        List<TimeInfo> replies = Collections.singletonList(kiss(SERVER, NtpUtils.KISS_RATE,
+                10 * NS_PER_MS));
+        RequestPacer.update(replies, nowMs);
+    }
+
+    private static void answered(long nowMs) {
+        RequestPacer.update(Collections.singletonList(reply(SERVER, 2, 0, 10 * NS_PER_MS)),
+                nowMs);
+    }
+
+    @Test
+    public void allowsBurst() {
+        assertArrayEquals(new int[] { 4 }, acquire(4, 0));
+        assertArrayEquals(new int[] { 4 }, acquire(4, 0));
+        assertArrayEquals(new int[] { 0 }, acquire(4, 0));
+    }
+
+    @Test
+    public void pacesServersSeparately() {
+        acquire(RequestPacer.CAPACITY, 0);
+
+        int[] allowed = RequestPacer.acquire(Arrays.asList(SERVER, OTHER), 4, 0);
+        assertArrayEquals(new int[] { 0, 4 }, allowed);
+    }
+
+    @Test
+    public void refillsOverTime() {
+        acquire(RequestPacer.CAPACITY, 0);
+
+        assertArrayEquals(new int[] { 0 }, acquire(4, RequestPacer.REFILL_MS - 1));
+        assertArrayEquals(new int[] { 1 }, acquire(4, RequestPacer.REFILL_MS));
+        // never more than a full bucket
+        assertArrayEquals(new int[] { RequestPacer.CAPACITY },
+                acquire(2 * RequestPacer.CAPACITY, 100 * RequestPacer.REFILL_MS));
+    }
+
+    @Test
+    public void kissOfDeathEmptiesBucketAndHalvesRate() {
+        acquire(1, 0);
+        kissed(1000);
+
+        assertArrayEquals(new int[] { 0 }, acquire(1, 1000 + RequestPacer.REFILL_MS));
+        assertArrayEquals(new int[] { 1 }, acquire(1, 1000 + 2 * RequestPacer.REFILL_MS));
+    }
+
+    @Test
+    public void rateHasLowerBound() {
+        for (int i = 0; i < 20; i++) {
+            kissed(0);
+        }
+
+        assertArrayEquals(new int[] { 0 }, acquire(1, RequestPacer.MAX_REFILL_MS - 1));
+        assertArrayEquals(new int[] { 1 }, acquire(1, RequestPacer.MAX_REFILL_MS));
+    }
+
+    @Test
+    public void replyRestoresRate() {
+        kissed(0);
+        kissed(0);
+        answered(2 * RequestPacer.REFILL_MS);
+
+        // the time before the reply refilled at a quarter of the rate
+        long halfMs = RequestPacer.REFILL_MS / 2;
+        assertArrayEquals(new int[] { 0 }, acquire(1, 2 * RequestPacer.REFILL_MS + halfMs - 1));
+        assertArrayEquals(new int[] { 1 }, acquire(1, 2 * RequestPacer.REFILL_MS + halfMs));
+    }
+
+    @Test
+    public void kissOfDeathWinsOverLateReply() {
+        List<TimeInfo> replies = Arrays.asList(reply(SERVER, 2, 0, 10 * NS_PER_MS),
+                kiss(SERVER, NtpUtils.KISS_RATE, 10 * NS_PER_MS));
+        RequestPacer.update(replies, 0);
+
+        assertArrayEquals(new int[] { 0 }, acquire(1, RequestPacer.REFILL_MS));
+    }
+}
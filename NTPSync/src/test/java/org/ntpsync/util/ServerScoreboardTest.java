@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.ntpsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.ntpsync.util.NtpTestUtils.NS_PER_MS;
+import static org.ntpsync.util.NtpTestUtils.address;
+import static org.ntpsync.util.NtpTestUtils.kiss;
+import static org.ntpsync.util.NtpTestUtils.reply;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.net.ntp.NtpUtils;
+import org.apache.commons.net.ntp.TimeInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerScoreboardTest {
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    private final InetAddress mFast = address(1);
+    private final InetAddress mSlow = address(2);
+    private final InetAddress mDead = address(3);
+
+    private MemoryContext mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new MemoryContext();
+    }
+
+    private void update(List<InetAddress> queried, TimeInfo... replies) {
+        ServerScoreboard.update(mContext, queried, Arrays.asList(replies));
+    }
+
+    @Test
+    public void unknownServersAreUsable() {
+        assertTrue(ServerScoreboard.isUsable(mContext, mFast));
+        assertEquals(ServerScoreboard.MAX_TIMEOUT_MS,
+                ServerScoreboard.getTimeoutMs(mContext, Collections.singletonList(mFast)));
+    }
+
+    @Test
+    public void skipsServerThatDidNotAnswer() {
+        update(Arrays.asList(mFast, mDead), reply(mFast, 2, 0, 10 * NS_PER_MS));
+
+        assertTrue(ServerScoreboard.isUsable(mContext, mFast));
+        assertFalse(ServerScoreboard.isUsable(mContext, mDead));
+    }
+
+    @Test
+    public void keepsServersWhenNetworkIsDown() {
+        update(Arrays.asList(mFast, mDead));
+
+        assertTrue(ServerScoreboard.isUsable(mContext, mFast));
+        assertTrue(ServerScoreboard.isUsable(mContext, mDead));
+    }
+
+    @Test
+    public void ordersByReachabilityAndDelay() {
+        List<InetAddress> all = Arrays.asList(mDead, mSlow, mFast);
+        update(all, reply(mFast, 2, 0, 10 * NS_PER_MS), reply(mSlow, 2, 0, 80 * NS_PER_MS));
+
+        assertEquals(Arrays.asList(mFast, mSlow, mDead),
+                ServerScoreboard.order(mContext, new InetAddress[] { mDead, mSlow, mFast }));
+
+        // the fast server misses a query and falls behind the reliable one
+        update(Arrays.asList(mFast, mSlow), reply(mSlow, 2, 0, 80 * NS_PER_MS));
+        ServerScoreboard.onClockAdjusted(mContext, -ServerScoreboard.MIN_BACKOFF_MS);
+        assertEquals(Arrays.asList(mSlow, mFast, mDead),
+                ServerScoreboard.order(mContext, new InetAddress[] { mDead, mFast, mSlow }));
+    }
+
+    @Test
+    public void timeoutFollowsRoundtrip() {
+        update(Arrays.asList(mFast, mSlow), reply(mFast, 2, 0, 10 * NS_PER_MS),
+                reply(mSlow, 2, 0, 1000 * NS_PER_MS));
+
+        assertEquals(ServerScoreboard.MIN_TIMEOUT_MS,
+                ServerScoreboard.getTimeoutMs(mContext, Collections.singletonList(mFast)));
+        assertEquals(4000, ServerScoreboard.getTimeoutMs(mContext, Arrays.asList(mFast, mSlow)));
+    }
+
+    @Test
+    public void kissOfDeathIsNoAnswer() {
+        update(Collections.singletonList(mFast), kiss(mFast, NtpUtils.KISS_RATE, 10 * NS_PER_MS));
+
+        assertFalse(ServerScoreboard.isUsable(mContext, mFast));
+        assertEquals(ServerScoreboard.MAX_TIMEOUT_MS,
+                ServerScoreboard.getTimeoutMs(mContext, Collections.singletonList(mFast)));
+    }
+
+    @Test
+    public void deniedServerIsSkippedForLong() {
+        update(Collections.singletonList(mFast), kiss(mFast, NtpUtils.KISS_DENY, 10 * NS_PER_MS));
+        ServerScoreboard.onClockAdjusted(mContext, -ServerScoreboard.MAX_BACKOFF_MS);
+
+        assertFalse(ServerScoreboard.isUsable(mContext, mFast));
+    }
+
+    @Test
+    public void backoffFollowsClockAdjustments() {
+        update(Arrays.asList(mFast, mDead), reply(mFast, 2, 0, 10 * NS_PER_MS));
+
+        // the clock was set ahead, the retry time moves along
+        ServerScoreboard.onClockAdjusted(mContext, MINUTE_MS);
+        assertFalse(ServerScoreboard.isUsable(mContext, mDead));
+
+        ServerScoreboard.onClockAdjusted(mContext, -ServerScoreboard.MIN_BACKOFF_MS - MINUTE_MS);
+        assertTrue(ServerScoreboard.isUsable(mContext, mDead));
+    }
+
+    @Test
+    public void ignoresRetryTimeBeyondAnyBackoff() {
+        update(Arrays.asList(mFast, mDead), reply(mFast, 2, 0, 10 * NS_PER_MS));
+
+        // left by a clock that was set back by someone else
+        ServerScoreboard.onClockAdjusted(mContext, ServerScoreboard.DENY_BACKOFF_MS);
+        assertTrue(ServerScoreboard.isUsable(mContext, mDead));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.ntpsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.ntpsync.util.NtpTestUtils.NS_PER_MS;
+import static org.ntpsync.util.NtpTestUtils.address;
+import static org.ntpsync.util.NtpTestUtils.reply;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.ContextWrapper;
+
+public class SyncHistoryTest {
+    private File mDir;
+    private ContextWrapper mContext;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("history").toFile();
+        mContext = new ContextWrapper(null) {
+            @Override
+            public File getFilesDir() {
+                return mDir;
+            }
+        };
+        SyncHistory.unmap();
+    }
+
+    @After
+    public void tearDown() {
+        SyncHistory.unmap();
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    private static ClockSelection.Result result(long offsetNs) {
+        ClockFilter filter = new ClockFilter();
+        filter.add(reply(address(7), 2, offsetNs, 20 * NS_PER_MS), 0);
+        return ClockSelection.select(Collections.singletonList(filter));
+    }
+
+    private void append(long timeMs) {
+        SyncHistory.append(mContext, result(timeMs * NS_PER_MS), false, timeMs);
+    }
+
+    private List<SyncHistory.Record> getAll() {
+        return SyncHistory.getRecords(mContext, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void storesRecord() {
+        SyncHistory.append(mContext, result(5 * NS_PER_MS), true, 1000);
+
+        List<SyncHistory.Record> records = getAll();
+        assertEquals(1, records.size());
+        SyncHistory.Record record = records.get(0);
+        assertEquals(1000, record.getTimeMs());
+        assertEquals(5 * NS_PER_MS, record.getOffsetNs());
+        assertEquals(20 * NS_PER_MS, record.getDelayNs());
+        assertEquals(2, record.getStratum());
+        assertEquals(address(7), record.getServer());
+        assertTrue(record.isApplied());
+    }
+
+    @Test
+    public void scansRange() {
+        for (long timeMs = 1000; timeMs <= 9000; timeMs += 1000) {
+            append(timeMs);
+        }
+
+        List<SyncHistory.Record> records = SyncHistory.getRecords(mContext, 2500, 5000);
+        assertEquals(2, records.size());
+        assertEquals(3000, records.get(0).getTimeMs());
+        assertEquals(4000, records.get(1).getTimeMs());
+        assertFalse(records.get(0).isApplied());
+
+        assertEquals(0, SyncHistory.getRecords(mContext, 9001, 20000).size());
+        assertEquals(0, SyncHistory.getRecords(mContext, 0, 1000).size());
+    }
+
+    @Test
+    public void dropsRecordBeforeLast() {
+        append(2000);
+        append(1000);
+        append(2000);
+
+        List<SyncHistory.Record> records = getAll();
+        assertEquals(2, records.size());
+        assertEquals(2000, records.get(0).getTimeMs());
+        assertEquals(2000, records.get(1).getTimeMs());
+    }
+
+    @Test
+    public void overwritesOldestWhenFull() {
+        for (int i = 0; i < SyncHistory.CAPACITY + 10; i++) {
+            append(i * 1000L);
+        }
+
+        List<SyncHistory.Record> records = getAll();
+        assertEquals(SyncHistory.CAPACITY, records.size());
+        assertEquals(10 * 1000L, records.get(0).getTimeMs());
+        assertEquals((SyncHistory.CAPACITY + 9) * 1000L,
+                records.get(SyncHistory.CAPACITY - 1).getTimeMs());
+
+        // the range crosses the end of the ring
+        records = SyncHistory.getRecords(mContext, (SyncHistory.CAPACITY - 2) * 1000L,
+                (SyncHistory.CAPACITY + 2) * 1000L);
+        assertEquals(4, records.size());
+        assertEquals((SyncHistory.CAPACITY - 2) * 1000L, records.get(0).getTimeMs());
+    }
+
+    @Test
+    public void keepsRecordsInFile() {
+        append(1000);
+        append(2000);
+        SyncHistory.unmap();
+
+        assertEquals(2, getAll().size());
+        append(3000);
+        assertEquals(3, getAll().size());
+    }
+}
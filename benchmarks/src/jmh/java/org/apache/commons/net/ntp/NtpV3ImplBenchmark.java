@@ -0,0 +1,149 @@
+package org.apache.commons.net.ntp;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/***
+ * Benchmarks of the NtpV3Impl header codec: reading and writing single
+ * fields and whole server replies and client requests.
+ ***/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NtpV3ImplBenchmark
+{
+    private NtpV3Impl _reply;
+    private NtpV3Impl _request;
+    private TimeStamp _now;
+
+    @Setup
+    public void setUp()
+    {
+        _now = TimeStamp.getNtpTimeFromMillis(System.currentTimeMillis());
+
+        _reply = new NtpV3Impl();
+        _reply.setLeapIndicator(NtpV3Packet.LI_NO_WARNING);
+        _reply.setVersion(NtpV3Packet.VERSION_4);
+        _reply.setMode(NtpV3Packet.MODE_SERVER);
+        _reply.setStratum(2);
+        _reply.setPoll(6);
+        _reply.setPrecision(-20);
+        _reply.setRootDelay(0x00000123);
+        _reply.setRootDispersion(0x00000456);
+        _reply.setReferenceId(0xc0a80001);
+        _reply.setReferenceTimeValue(_now.ntpValue() - (64L << 32));
+        _reply.setOriginateTimeStampValue(_now.ntpValue());
+        _reply.setReceiveTimeStampValue(_now.ntpValue() + 0x1000000L);
+        _reply.setTransmitTimeValue(_now.ntpValue() + 0x1001000L);
+
+        _request = new NtpV3Impl();
+    }
+
+    @Benchmark
+    public TimeStamp getTransmitTimeStamp()
+    {
+        return _reply.getTransmitTimeStamp();
+    }
+
+    @Benchmark
+    public long getTransmitTimeStampValue()
+    {
+        return _reply.getTransmitTimeStampValue();
+    }
+
+    @Benchmark
+    public int getRootDelay()
+    {
+        return _reply.getRootDelay();
+    }
+
+    @Benchmark
+    public int getStratum()
+    {
+        return _reply.getStratum();
+    }
+
+    @Benchmark
+    public String getReferenceIdString()
+    {
+        return _reply.getReferenceIdString();
+    }
+
+    @Benchmark
+    public void setTransmitTime()
+    {
+        _request.setTransmitTime(_now);
+    }
+
+    @Benchmark
+    public void setTransmitTimeValue()
+    {
+        _request.setTransmitTimeValue(_now.ntpValue());
+    }
+
+    /***
+     * Everything a client reads from a reply, through the TimeStamp getters.
+     ***/
+    @Benchmark
+    public long decodeReply()
+    {
+        return _reply.getLeapIndicator() + _reply.getVersion() + _reply.getMode()
+            + _reply.getStratum() + _reply.getPoll() + _reply.getPrecision()
+            + _reply.getRootDelay() + _reply.getRootDispersion() + _reply.getReferenceId()
+            + _reply.getReferenceTimeStamp().ntpValue()
+            + _reply.getOriginateTimeStamp().ntpValue()
+            + _reply.getReceiveTimeStamp().ntpValue()
+            + _reply.getTransmitTimeStamp().ntpValue();
+    }
+
+    /***
+     * Everything a client reads from a reply, through the primitive getters.
+     ***/
+    @Benchmark
+    public long decodeReplyValues()
+    {
+        return _reply.getLeapIndicator() + _reply.getVersion() + _reply.getMode()
+            + _reply.getStratum() + _reply.getPoll() + _reply.getPrecision()
+            + _reply.getRootDelay() + _reply.getRootDispersion() + _reply.getReferenceId()
+            + _reply.getReferenceTimeStampValue()
+            + _reply.getOriginateTimeStampValue()
+            + _reply.getReceiveTimeStampValue()
+            + _reply.getTransmitTimeStampValue();
+    }
+
+    /***
+     * A client request as NTPUDPClient builds it.
+     ***/
+    @Benchmark
+    public NtpV3Impl encodeRequest()
+    {
+        _request.clear();
+        _request.setMode(NtpV3Packet.MODE_CLIENT);
+        _request.setVersion(NtpV3Packet.VERSION_3);
+        _request.setTransmitTimeValue(_now.ntpValue());
+        return _request;
+    }
+}
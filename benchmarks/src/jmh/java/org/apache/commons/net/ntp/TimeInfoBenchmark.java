@@ -0,0 +1,99 @@
+package org.apache.commons.net.ntp;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/***
+ * Benchmarks of computing offset and delay of a reply, for the system time
+ * and for the elapsed real time (offsets of decades).
+ ***/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimeInfoBenchmark
+{
+    private NtpV3Impl _systemTimeReply;
+    private long _systemTimeReturn;
+    private NtpV3Impl _elapsedTimeReply;
+    private long _elapsedTimeReturn;
+    private TimeInfo _computed;
+
+    @Setup
+    public void setUp()
+    {
+        long now = System.currentTimeMillis() * TimeStamp.NS_PER_MS;
+        _systemTimeReply = reply(now, 2500000);
+        _systemTimeReturn = TimeStamp.nanosToNtpTime(now + 10000000);
+
+        long uptime = 3600 * TimeStamp.NS_PER_SEC;
+        _elapsedTimeReply = reply(uptime, now - uptime);
+        _elapsedTimeReturn = TimeStamp.nanosToNtpTime(uptime + 10000000);
+
+        _computed = new TimeInfo(_systemTimeReply, _systemTimeReturn, true);
+    }
+
+    /***
+     * Reply to a request sent at <code>originate</code> by a server whose
+     * clock is <code>offset</code> ahead, 5 ms away.
+     ***/
+    private static NtpV3Impl reply(long originate, long offset)
+    {
+        NtpV3Impl reply = new NtpV3Impl();
+        reply.setMode(NtpV3Packet.MODE_SERVER);
+        reply.setVersion(NtpV3Packet.VERSION_3);
+        reply.setStratum(2);
+        reply.setOriginateTimeStampValue(TimeStamp.nanosToNtpTime(originate));
+        reply.setReceiveTimeStampValue(TimeStamp.nanosToNtpTime(originate + 5000000 + offset));
+        reply.setTransmitTimeValue(TimeStamp.nanosToNtpTime(originate + 5000100 + offset));
+        return reply;
+    }
+
+    @Benchmark
+    public long computeDetailsSystemTime()
+    {
+        TimeInfo info = new TimeInfo(_systemTimeReply, _systemTimeReturn, true);
+        return info.getOffsetNsValue();
+    }
+
+    @Benchmark
+    public long computeDetailsElapsedTime()
+    {
+        TimeInfo info = new TimeInfo(_elapsedTimeReply, _elapsedTimeReturn, true);
+        return info.getOffsetNsValue();
+    }
+
+    @Benchmark
+    public Double getOffsetNs()
+    {
+        return _computed.getOffsetNs();
+    }
+
+    @Benchmark
+    public long getOffsetNsValue()
+    {
+        return _computed.getOffsetNsValue();
+    }
+}
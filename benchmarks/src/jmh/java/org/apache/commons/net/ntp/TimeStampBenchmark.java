@@ -0,0 +1,98 @@
+package org.apache.commons.net.ntp;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/***
+ * Benchmarks of the conversions between NTP timestamps and Java time.
+ ***/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimeStampBenchmark
+{
+    private long _millis;
+    private long _nanos;
+    private long _ntpTime;
+    private TimeStamp _timeStamp;
+
+    @Setup
+    public void setUp()
+    {
+        _millis = System.currentTimeMillis();
+        _nanos = _millis * TimeStamp.NS_PER_MS + 123456;
+        _ntpTime = TimeStamp.nanosToNtpTime(_nanos);
+        _timeStamp = new TimeStamp(_ntpTime);
+    }
+
+    @Benchmark
+    public long getTimeNanos()
+    {
+        return TimeStamp.getTimeNanos(_ntpTime);
+    }
+
+    @Benchmark
+    public long getTimeMillis()
+    {
+        return TimeStamp.getTimeMillis(_ntpTime);
+    }
+
+    @Benchmark
+    public TimeStamp getNtpTimeFromMillis()
+    {
+        return TimeStamp.getNtpTimeFromMillis(_millis);
+    }
+
+    @Benchmark
+    public TimeStamp getNtpTimeFromNanos()
+    {
+        return TimeStamp.getNtpTimeFromNanos(_nanos);
+    }
+
+    @Benchmark
+    public long millisToNtpTime()
+    {
+        return TimeStamp.millisToNtpTime(_millis);
+    }
+
+    @Benchmark
+    public long nanosToNtpTime()
+    {
+        return TimeStamp.nanosToNtpTime(_nanos);
+    }
+
+    @Benchmark
+    public String toDateString()
+    {
+        return _timeStamp.toDateString();
+    }
+
+    @Benchmark
+    public String toHexString()
+    {
+        return _timeStamp.toString();
+    }
+}
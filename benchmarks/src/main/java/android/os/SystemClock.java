@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package android.os;
+
+/**
+ * Stand-in for the Android class on a plain JVM, backed by System.nanoTime()
+ */
+public final class SystemClock {
+    private static final long START_NANOS = System.nanoTime();
+
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return elapsedRealtimeNanos() / 1000000L;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime() - START_NANOS;
+    }
+}
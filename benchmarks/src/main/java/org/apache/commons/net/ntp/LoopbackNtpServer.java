@@ -0,0 +1,341 @@
+package org.apache.commons.net.ntp;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.DatagramSocketClient;
+
+import android.os.SystemClock;
+
+/***
+ * The LoopbackNtpServer class is a stand-in NTP server for offline tests
+ * and benchmarks. It answers client requests like a server whose clock is
+ * off by a configured offset and which is reached over a simulated path
+ * with a configured roundtrip delay, jitter, asymmetry and packet loss.
+ * Stratum and leap indicator of the replies are configurable too, so
+ * falsetickers and unsynchronized servers can be simulated.
+ * <p>
+ * A request is timestamped when it arrives, as if it had arrived after the
+ * forward delay, and the reply is held back until forward and backward
+ * delay have passed. A client therefore measures the configured delay plus
+ * the loopback roundtrip, and the configured offset plus half the
+ * difference of forward and backward delay, exactly the error a real
+ * asymmetric path causes.
+ * <p>
+ * Configure the server before calling {@link #start start()}. Replies are
+ * sent from one scheduler thread, requests are received on another.
+ ***/
+
+public final class LoopbackNtpServer extends DatagramSocketClient
+{
+    private long _offset;
+    private long _delay;
+    private long _jitter;
+    private double _asymmetry;
+    private double _loss;
+    private int _stratum = 2;
+    private int _leapIndicator = NtpV3Packet.LI_NO_WARNING;
+    private int _precision = -20;
+    private boolean _elapsedTime;
+    private Random _random = new Random();
+
+    private volatile boolean _stopped;
+    private Thread _receiver;
+    private ScheduledExecutorService _sender;
+    private long _requests;
+    private long _dropped;
+
+    /***
+     * Sets the offset of the server clock to the local clock.
+     *
+     * @param offset Offset in nanoseconds, positive if the server is ahead.
+     ***/
+    public void setOffset(long offset)
+    {
+        _offset = offset;
+    }
+
+    /***
+     * Sets the mean roundtrip delay of the simulated path.
+     *
+     * @param delay Roundtrip delay in nanoseconds, without jitter.
+     ***/
+    public void setDelay(long delay)
+    {
+        _delay = delay;
+    }
+
+    /***
+     * Sets the jitter of the simulated path. A uniformly distributed random
+     * delay up to this value is added to each direction.
+     *
+     * @param jitter Maximum additional delay per direction in nanoseconds.
+     ***/
+    public void setJitter(long jitter)
+    {
+        _jitter = jitter;
+    }
+
+    /***
+     * Sets the asymmetry of the simulated path. The forward delay is
+     * <code>delay * (1 + asymmetry) / 2</code>, the backward delay
+     * <code>delay * (1 - asymmetry) / 2</code>.
+     *
+     * @param asymmetry Asymmetry between -1 (all delay on the way back) and
+     *                  1 (all delay on the way to the server).
+     ***/
+    public void setAsymmetry(double asymmetry)
+    {
+        if (asymmetry < -1 || asymmetry > 1)
+        {
+            throw new IllegalArgumentException("asymmetry must be in [-1, 1]");
+        }
+        _asymmetry = asymmetry;
+    }
+
+    /***
+     * Sets the fraction of requests that are dropped without a reply.
+     *
+     * @param loss Loss probability between 0 and 1.
+     ***/
+    public void setLoss(double loss)
+    {
+        if (loss < 0 || loss > 1)
+        {
+            throw new IllegalArgumentException("loss must be in [0, 1]");
+        }
+        _loss = loss;
+    }
+
+    /***
+     * Sets the stratum of the replies, 0 for kiss-o'-death replies and 16
+     * for an unsynchronized server.
+     ***/
+    public void setStratum(int stratum)
+    {
+        _stratum = stratum;
+    }
+
+    /***
+     * Sets the leap indicator of the replies, one of the
+     * <code>NtpV3Packet.LI_*</code> constants.
+     ***/
+    public void setLeapIndicator(int leapIndicator)
+    {
+        _leapIndicator = leapIndicator;
+    }
+
+    /***
+     * Sets the precision of the replies as log2 seconds.
+     ***/
+    public void setPrecision(int precision)
+    {
+        _precision = precision;
+    }
+
+    /***
+     * Makes the server clock follow the elapsed real time instead of the
+     * system time, for clients that query with <code>elapsedTime</code> set.
+     ***/
+    public void setElapsedTime(boolean elapsedTime)
+    {
+        _elapsedTime = elapsedTime;
+    }
+
+    /***
+     * Seeds the generator of jitter and loss, for reproducible runs.
+     ***/
+    public void setSeed(long seed)
+    {
+        _random = new Random(seed);
+    }
+
+    /***
+     * Opens the socket on the next available port if it is not open yet
+     * and starts answering requests.
+     * <p>
+     * @exception SocketException If the socket could not be opened.
+     ***/
+    public void start() throws SocketException
+    {
+        if (!isOpen())
+        {
+            open();
+        }
+        _sender = new ScheduledThreadPoolExecutor(1);
+        _receiver = new Thread("LoopbackNtpServer")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    serve();
+                }
+                catch (IOException e)
+                {
+                    if (!_stopped)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        };
+        _receiver.setDaemon(true);
+        _receiver.start();
+    }
+
+    /***
+     * Stops answering requests, drops replies not sent yet and closes the
+     * socket.
+     ***/
+    public void stop()
+    {
+        _stopped = true;
+        if (_sender != null)
+        {
+            _sender.shutdownNow();
+        }
+        close();
+        if (_receiver != null)
+        {
+            try
+            {
+                _receiver.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /***
+     * Returns the number of requests answered so far.
+     ***/
+    public synchronized long getRequestCount()
+    {
+        return _requests;
+    }
+
+    /***
+     * Returns the number of requests dropped by the simulated loss.
+     ***/
+    public synchronized long getDroppedCount()
+    {
+        return _dropped;
+    }
+
+    private void serve() throws IOException
+    {
+        NtpV3Packet request = new NtpV3Impl();
+        DatagramPacket requestPacket = request.getDatagramPacket();
+
+        while (!_stopped)
+        {
+            requestPacket.setLength(requestPacket.getData().length);
+            _socket_.receive(requestPacket);
+            long arrival = now();
+
+            if (request.getMode() != NtpV3Packet.MODE_CLIENT
+                || requestPacket.getLength() < requestPacket.getData().length)
+            {
+                continue;
+            }
+            if (_loss > 0 && _random.nextDouble() < _loss)
+            {
+                synchronized (this)
+                {
+                    _dropped++;
+                }
+                continue;
+            }
+
+            long forward = Math.round(_delay * (1 + _asymmetry) / 2) + randomJitter();
+            long backward = Math.round(_delay * (1 - _asymmetry) / 2) + randomJitter();
+            long serverTime = arrival + forward + _offset;
+
+            final NtpV3Packet reply = new NtpV3Impl();
+            reply.setLeapIndicator(_leapIndicator);
+            reply.setVersion(request.getVersion());
+            reply.setMode(NtpV3Packet.MODE_SERVER);
+            reply.setStratum(_stratum);
+            reply.setPoll(request.getPoll());
+            reply.setPrecision(_precision);
+            reply.setRootDelay(0x00000100);
+            reply.setRootDispersion(0x00000100);
+            reply.setReferenceId(0x7f000001);
+            reply.setReferenceTimeValue(TimeStamp.nanosToNtpTime(serverTime
+                - 16 * TimeStamp.NS_PER_SEC));
+            reply.setOriginateTimeStampValue(request.getTransmitTimeStampValue());
+            reply.setReceiveTimeStampValue(TimeStamp.nanosToNtpTime(serverTime));
+            reply.setTransmitTimeValue(TimeStamp.nanosToNtpTime(serverTime));
+            reply.getDatagramPacket().setAddress(requestPacket.getAddress());
+            reply.getDatagramPacket().setPort(requestPacket.getPort());
+
+            // the time spent up to here is part of the simulated delay
+            long hold = Math.max(arrival + forward + backward - now(), 0);
+            _sender.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    send(reply);
+                }
+            }, hold, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void send(NtpV3Packet reply)
+    {
+        try
+        {
+            _socket_.send(reply.getDatagramPacket());
+            synchronized (this)
+            {
+                _requests++;
+            }
+        }
+        catch (IOException e)
+        {
+            // socket closed by stop(), the client times out like on a lossy path
+        }
+    }
+
+    private long randomJitter()
+    {
+        return (_jitter > 0) ? (long) (_random.nextDouble() * _jitter) : 0;
+    }
+
+    /***
+     * Local time in nanoseconds on the same clock the client timestamps with.
+     ***/
+    private long now()
+    {
+        if (_elapsedTime)
+        {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return System.currentTimeMillis() * TimeStamp.NS_PER_MS;
+    }
+}
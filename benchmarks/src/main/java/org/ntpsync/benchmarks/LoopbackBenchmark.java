@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * This file is part of NTPSync.
+ *
+ * NTPSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NTPSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NTPSync.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.ntpsync.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.net.DatagramChannelSocketFactory;
+import org.apache.commons.net.ntp.LoopbackNtpServer;
+import org.apache.commons.net.ntp.NTPUDPClient;
+import org.apache.commons.net.ntp.TimeInfo;
+import org.ntpsync.util.ClockFilter;
+import org.ntpsync.util.ClockSelection;
+
+import android.os.SystemClock;
+
+/**
+ * End-to-end benchmark of NTPUDPClient against LoopbackNtpServer instances on 127.0.0.1 to
+ * 127.0.0.n. Runs a fixed set of scenarios and reports throughput, the p50 and p99 latency of a
+ * sync and the error of the measured offset to the configured one, entirely offline:
+ *
+ * ./gradlew :benchmarks:loopbackBenchmark [-Piterations=N]
+ *
+ * The multi-server scenarios need the whole 127.0.0.0/8 network on the loopback interface, as on
+ * Linux. Clocks are compared in elapsed real time, which has nanosecond resolution.
+ */
+public class LoopbackBenchmark {
+    private static final long NS_PER_MS = 1000000L;
+
+    private static final int DEFAULT_ITERATIONS = 200;
+    private static final int TIMEOUT_MS = 1000;
+    private static final int BURST_PACKETS = 4;
+    private static final int BURST_SPACING_MS = 20;
+
+    /** offset all correct servers agree on */
+    private static final long TRUE_OFFSET_NS = 25 * NS_PER_MS;
+
+    /**
+     * Configuration of the servers of one scenario
+     */
+    private static class Scenario {
+        final String mName;
+        final int mBurst;
+        final LoopbackNtpServer[] mServers;
+
+        Scenario(String name, int servers, int burst) {
+            mName = name;
+            mBurst = burst;
+            mServers = new LoopbackNtpServer[servers];
+            for (int i = 0; i < servers; i++) {
+                mServers[i] = new LoopbackNtpServer();
+                mServers[i].setElapsedTime(true);
+                mServers[i].setOffset(TRUE_OFFSET_NS);
+                mServers[i].setSeed(i);
+            }
+        }
+    }
+
+    /**
+     * Latencies and offset errors of all iterations of a scenario
+     */
+    private static class Measurements {
+        final long[] mLatencyNs;
+        final long[] mOffsetErrorNs;
+        int mCount;
+        int mFailures;
+        long mTotalNs;
+
+        Measurements(int iterations) {
+            mLatencyNs = new long[iterations];
+            mOffsetErrorNs = new long[iterations];
+        }
+
+        void add(long latencyNs, long offsetErrorNs) {
+            mLatencyNs[mCount] = latencyNs;
+            mOffsetErrorNs[mCount] = Math.abs(offsetErrorNs);
+            mCount++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+
+        // transport overhead only
+        scenarios.add(new Scenario("1 server, no delay", 1, 1));
+
+        // the offset error is half the path asymmetry: 0.2 * 10 ms / 2 = 1 ms
+        Scenario asymmetric = new Scenario("1 server, asymmetric path", 1, 1);
+        asymmetric.mServers[0].setDelay(10 * NS_PER_MS);
+        asymmetric.mServers[0].setAsymmetry(0.2);
+        scenarios.add(asymmetric);
+
+        // the clock filter picks the sample least disturbed by jitter
+        Scenario jittery = new Scenario("1 server, jitter, burst", 1, BURST_PACKETS);
+        jittery.mServers[0].setDelay(10 * NS_PER_MS);
+        jittery.mServers[0].setJitter(5 * NS_PER_MS);
+        scenarios.add(jittery);
+
+        // selection has to discard the falseticker and the unsynchronized server
+        Scenario selection = new Scenario("5 servers, selection", 5, BURST_PACKETS);
+        for (int i = 0; i < selection.mServers.length; i++) {
+            selection.mServers[i].setDelay((5 + 5 * i) * NS_PER_MS);
+            selection.mServers[i].setJitter(2 * NS_PER_MS);
+            selection.mServers[i].setAsymmetry(0.1);
+        }
+        selection.mServers[3].setOffset(TRUE_OFFSET_NS + 500 * NS_PER_MS);
+        selection.mServers[4].setStratum(16);
+        selection.mServers[4].setLeapIndicator(3);
+        scenarios.add(selection);
+
+        // quorum is reached without the lost replies
+        Scenario lossy = new Scenario("5 servers, 20% loss", 5, BURST_PACKETS);
+        for (LoopbackNtpServer server : lossy.mServers) {
+            server.setDelay(10 * NS_PER_MS);
+            server.setJitter(2 * NS_PER_MS);
+            server.setLoss(0.2);
+        }
+        scenarios.add(lossy);
+
+        System.out.println(String.format("%-28s %10s %10s %10s %14s %14s %8s", "scenario",
+                "ops/s", "p50 ms", "p99 ms", "err p50 ms", "err max ms", "failed"));
+        for (Scenario scenario : scenarios) {
+            report(scenario, run(scenario, iterations));
+        }
+    }
+
+    private static Measurements run(Scenario scenario, int iterations) throws IOException {
+        InetAddress[] hosts = new InetAddress[scenario.mServers.length];
+        int port = 0;
+        for (int i = 0; i < scenario.mServers.length; i++) {
+            hosts[i] = InetAddress.getByAddress(new byte[] { 127, 0, 0, (byte) (i + 1) });
+            // all servers have to listen on the same port, getTimes() sends to one port
+            scenario.mServers[i].open(port, hosts[i]);
+            port = scenario.mServers[i].getLocalPort();
+            scenario.mServers[i].start();
+        }
+
+        NTPUDPClient client = new NTPUDPClient();
+        client.setDatagramSocketFactory(new DatagramChannelSocketFactory());
+        client.setDefaultTimeout(TIMEOUT_MS);
+        client.open();
+
+        Measurements measurements = new Measurements(iterations);
+        try {
+            // warm up the code paths before measuring
+            for (int i = 0; i < Math.min(iterations, 20); i++) {
+                sync(client, hosts, port, scenario.mBurst);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                long begin = System.nanoTime();
+                Long offset = sync(client, hosts, port, scenario.mBurst);
+                long latency = System.nanoTime() - begin;
+                if (offset == null) {
+                    measurements.mFailures++;
+                } else {
+                    measurements.add(latency, offset - TRUE_OFFSET_NS);
+                }
+            }
+            measurements.mTotalNs = System.nanoTime() - start;
+        } finally {
+            client.close();
+            for (LoopbackNtpServer server : scenario.mServers) {
+                server.stop();
+            }
+        }
+        return measurements;
+    }
+
+    /**
+     * One sync as NtpSyncUtils does it: a burst to all servers, clock filter and selection
+     *
+     * @return selected offset in nanoseconds or null if the sync failed
+     */
+    private static Long sync(NTPUDPClient client, InetAddress[] hosts, int port, int burst) {
+        List<TimeInfo> infos;
+        try {
+            infos = client.getTimes(hosts, port, true, hosts.length / 2 + 1, burst,
+                    BURST_SPACING_MS);
+        } catch (IOException e) {
+            return null;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        ClockFilter[] filters = new ClockFilter[hosts.length];
+        for (TimeInfo info : infos) {
+            info.computeDetails();
+            int index = Arrays.asList(hosts).indexOf(info.getAddress());
+            if (filters[index] == null) {
+                filters[index] = new ClockFilter();
+            }
+            filters[index].add(info, now);
+        }
+        List<ClockFilter> used = new ArrayList<ClockFilter>();
+        for (ClockFilter filter : filters) {
+            if (filter != null) {
+                used.add(filter);
+            }
+        }
+
+        ClockSelection.Result result = ClockSelection.select(used);
+        return (result == null) ? null : result.getOffsetNs();
+    }
+
+    private static void report(Scenario scenario, Measurements measurements) {
+        int n = measurements.mCount;
+        long[] latency = Arrays.copyOf(measurements.mLatencyNs, n);
+        long[] error = Arrays.copyOf(measurements.mOffsetErrorNs, n);
+        Arrays.sort(latency);
+        Arrays.sort(error);
+
+        double opsPerSec = (n + measurements.mFailures) * 1e9 / measurements.mTotalNs;
+        System.out.println(String.format("%-28s %10.1f %10.3f %10.3f %14.3f %14.3f %8d",
+                scenario.mName, opsPerSec, percentile(latency, 50) / 1e6,
+                percentile(latency, 99) / 1e6, percentile(error, 50) / 1e6,
+                (n > 0) ? error[n - 1] / 1e6 : Double.NaN, measurements.mFailures));
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values
+     */
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
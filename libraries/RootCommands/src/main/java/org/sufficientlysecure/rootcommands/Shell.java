@@ -334,6 +334,25 @@ public class Shell implements Closeable {
         }
     }
 
+    /**
+     * Checks if the shell can still execute commands, it may have been closed or the process may
+     * have died
+     * 
+     * @return true if the shell process is running and the shell has not been closed
+     */
+    public boolean isAlive() {
+        if (close) {
+            return false;
+        }
+        try {
+            shellProcess.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            // no exit value yet, still running
+            return true;
+        }
+    }
+
     /**
      * Returns number of queued commands
      * 
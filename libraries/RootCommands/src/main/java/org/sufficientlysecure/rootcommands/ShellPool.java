@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 NTPSync contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sufficientlysecure.rootcommands;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.sufficientlysecure.rootcommands.util.Log;
+import org.sufficientlysecure.rootcommands.util.RootAccessDeniedException;
+
+/**
+ * Keeps a shell open between operations, so repeated commands do not spawn a new process and, for
+ * a root shell, do not go through su again. The shell is started lazily on first use, checked to be
+ * alive before it is lent and closed when it has not been used for the idle timeout.
+ * 
+ * A shell may be lent to several callers at once, their commands are queued by the shell. Every
+ * shell that has been borrowed has to be returned, closing it is up to the pool.
+ */
+public class ShellPool {
+    public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    private static ShellPool rootShellPool;
+
+    private final boolean root;
+    private final long idleTimeout;
+    private final Timer timer = new Timer("ShellPool", true);
+
+    private Shell shell;
+    private int borrowed = 0;
+    private TimerTask idleTask;
+
+    /**
+     * Returns the pool of root shells shared by the whole process
+     * 
+     * @return
+     */
+    public static synchronized ShellPool getRootShellPool() {
+        if (rootShellPool == null) {
+            rootShellPool = new ShellPool(true, DEFAULT_IDLE_TIMEOUT);
+        }
+        return rootShellPool;
+    }
+
+    /**
+     * @param root
+     *            true for root shells, false for default sh shells
+     * @param idleTimeout
+     *            milliseconds after which a shell that is not borrowed is closed
+     */
+    public ShellPool(boolean root, long idleTimeout) {
+        this.root = root;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Borrows the shell, starting it if there is none or the last one died
+     * 
+     * @return
+     * @throws IOException
+     * @throws RootAccessDeniedException
+     */
+    public synchronized Shell borrowShell() throws IOException, RootAccessDeniedException {
+        cancelIdleTask();
+
+        if (shell == null || !shell.isAlive()) {
+            if (shell != null) {
+                Log.d(RootCommands.TAG, "Pooled shell died, starting a new one");
+                shell.close();
+            }
+            shell = null;
+            borrowed = 0;
+            shell = root ? Shell.startRootShell() : Shell.startShell();
+        }
+
+        borrowed++;
+        return shell;
+    }
+
+    /**
+     * Returns a borrowed shell, it is closed after the idle timeout if it is not borrowed again
+     * 
+     * @param returned
+     */
+    public synchronized void returnShell(Shell returned) {
+        // a shell replaced after it died is not counted anymore
+        if (returned != shell) {
+            return;
+        }
+
+        borrowed--;
+        if (borrowed == 0) {
+            idleTask = new TimerTask() {
+                @Override
+                public void run() {
+                    closeIdle(this);
+                }
+            };
+            timer.schedule(idleTask, idleTimeout);
+        }
+    }
+
+    /**
+     * Closes the shell right away, commands already queued are still executed
+     * 
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        cancelIdleTask();
+        if (shell != null) {
+            shell.close();
+            shell = null;
+            borrowed = 0;
+        }
+    }
+
+    private synchronized void closeIdle(TimerTask task) {
+        // borrowed again in the meantime
+        if (task != idleTask) {
+            return;
+        }
+
+        Log.d(RootCommands.TAG, "Closing idle pooled shell");
+        try {
+            close();
+        } catch (IOException e) {
+            Log.e(RootCommands.TAG, "IOException", e);
+        }
+    }
+
+    private void cancelIdleTask() {
+        if (idleTask != null) {
+            idleTask.cancel();
+            idleTask = null;
+        }
+    }
+}
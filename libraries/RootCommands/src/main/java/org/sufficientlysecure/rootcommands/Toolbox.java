@@ -650,11 +650,13 @@ public class Toolbox {
         // set permissions (If set to 666, then Dalvik VM can also write to that file!)
         setFilePermissions(file, permission);
 
-        // execute user defined code
-        withPermissions.whileHavingPermissions();
-
-        // set back to old permissions
-        setFilePermissions(file, oldPermissions);
+        try {
+            // execute user defined code
+            withPermissions.whileHavingPermissions();
+        } finally {
+            // set back to old permissions
+            setFilePermissions(file, oldPermissions);
+        }
     }
 
     /**
@@ -691,6 +693,32 @@ public class Toolbox {
         });
     }
 
+    /**
+     * Adjust system clock by an offset in nanoseconds using /dev/alarm. The system time is only
+     * known exactly right after a millisecond began, so the offset is added to that time and the
+     * clock is set when the result is reached, keeping the fraction of the millisecond.
+     * 
+     * @param offsetNs
+     *            offset in nanoseconds
+     * @return change of the clock in milliseconds
+     * @throws BrokenBusyboxException
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    public long adjustSystemClockNs(final long offsetNs) throws BrokenBusyboxException,
+            TimeoutException, IOException {
+        final long[] change = new long[1];
+        withWritePermissions("/dev/alarm", new WithPermissions() {
+
+            @Override
+            void whileHavingPermissions() {
+                long nowNs = nextMillisecond() * 1000000L;
+                change[0] = setCurrentTimeAt(nowNs + offsetNs, SystemClock.elapsedRealtimeNanos());
+            }
+        });
+        return change[0];
+    }
+
     /**
      * Adjust system clock by offset using /dev/alarm
      * 
@@ -705,11 +733,132 @@ public class Toolbox {
 
             @Override
             void whileHavingPermissions() {
-                SystemClock.setCurrentTimeMillis(System.currentTimeMillis() + offset);
+                setCurrentTimeAligned(offset);
             }
         });
     }
 
+    /**
+     * Slew system clock by offset using /dev/alarm. The offset is applied in steps of at most
+     * maxStep milliseconds, one every stepInterval milliseconds, so the clock never jumps by more
+     * than maxStep. Write permissions on /dev/alarm are only given for each step, so other apps
+     * cannot set the clock while it is slewed. Blocks until the whole offset has been applied or
+     * the thread is interrupted.
+     * 
+     * @param offset
+     * @param maxStep
+     *            largest step in milliseconds
+     * @param stepInterval
+     *            time between steps in milliseconds
+     * @return offset applied in milliseconds, less than offset if interrupted
+     * @throws BrokenBusyboxException
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    public long slewSystemClock(long offset, long maxStep, long stepInterval)
+            throws BrokenBusyboxException, TimeoutException, IOException {
+        long[] applied = new long[1];
+        slewSystemClock(offset, maxStep, stepInterval, applied);
+        return applied[0];
+    }
+
+    /**
+     * Like {@link #slewSystemClock(long, long, long)}, but reports the offset applied so far also
+     * if an exception is thrown, for example when the permissions could not be set back.
+     * 
+     * @param offset
+     * @param maxStep
+     *            largest step in milliseconds
+     * @param stepInterval
+     *            time between steps in milliseconds
+     * @param applied
+     *            applied[0] is set to the offset applied in milliseconds after every step
+     * @throws BrokenBusyboxException
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    public void slewSystemClock(final long offset, final long maxStep, final long stepInterval,
+            final long[] applied) throws BrokenBusyboxException, TimeoutException, IOException {
+        applied[0] = 0;
+
+        // every step is derived from one anchor on the elapsed real time, so the fractions of a
+        // millisecond lost by setting whole milliseconds do not add up
+        final long anchorNs = nextMillisecond() * 1000000L;
+        final long anchorElapsedNs = SystemClock.elapsedRealtimeNanos();
+
+        while (applied[0] != offset) {
+            final long step = Math.max(-maxStep, Math.min(maxStep, offset - applied[0]));
+            final long timeNs = anchorNs + (applied[0] + step) * 1000000L;
+            final boolean last = (applied[0] + step == offset);
+
+            withWritePermissions("/dev/alarm", new WithPermissions() {
+
+                @Override
+                void whileHavingPermissions() {
+                    if (last) {
+                        // the last step keeps the fraction of the millisecond
+                        setCurrentTimeAt(timeNs, anchorElapsedNs);
+                    } else {
+                        SystemClock.setCurrentTimeMillis((timeNs
+                                + SystemClock.elapsedRealtimeNanos() - anchorElapsedNs) / 1000000L);
+                    }
+                    applied[0] += step;
+                }
+            });
+
+            if (applied[0] != offset) {
+                try {
+                    Thread.sleep(stepInterval);
+                } catch (InterruptedException e) {
+                    Log.e(RootCommands.TAG, "Slew interrupted after " + applied[0] + " ms", e);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return current time in milliseconds, right after it changed
+     */
+    private static long nextMillisecond() {
+        long now = System.currentTimeMillis();
+        long next;
+        while ((next = System.currentTimeMillis()) == now) {
+            // spin for at most one millisecond
+        }
+        return next;
+    }
+
+    /**
+     * Sets the clock to a time given for an instant of the elapsed real time. The clock can only
+     * be set in whole milliseconds, so this waits for the next one to begin.
+     * 
+     * @return change of the clock in milliseconds
+     */
+    private static long setCurrentTimeAt(long timeNs, long elapsedRealtimeNs) {
+        long target = timeNs + (SystemClock.elapsedRealtimeNanos() - elapsedRealtimeNs);
+        long nextMs = target / 1000000L + 1;
+        while (timeNs + (SystemClock.elapsedRealtimeNanos() - elapsedRealtimeNs) < nextMs
+                * 1000000L) {
+            // spin for at most one millisecond
+        }
+        long change = nextMs - System.currentTimeMillis();
+        SystemClock.setCurrentTimeMillis(nextMs);
+        return change;
+    }
+
+    /**
+     * Sets the clock right after the millisecond changed. The clock can only be set in whole
+     * milliseconds, so this keeps the fraction of the current millisecond, which would be lost
+     * otherwise, below the time between reading and writing the clock.
+     * 
+     * @param offset
+     */
+    private static void setCurrentTimeAligned(long offset) {
+        SystemClock.setCurrentTimeMillis(nextMillisecond() + offset);
+    }
+
     /**
      * This will take a path, which can contain the file name as well, and attempt to remount the
      * underlying partition.